@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-resource cost of the ignore rules, checking 10^6 file names against the global
+ * rules plus a user exceptions file. The rule-per-name loop is how the rules were 
+ * checked before they were compiled, without the re-read of the exceptions file it 
+ * also did for every name.
+ * 
+ * Measured on a single core Linux VM with JDK 17.0.9, ns per name:
+ * 
+ * <pre>
+ * Benchmark                           Mode  Cnt     Score     Error  Units
+ * IgnoreRulesBenchmark.compiledRules  avgt   10   365.543 +-  57.221  ns/op
+ * IgnoreRulesBenchmark.rulePerName    avgt   10  4174.667 +- 316.299  ns/op
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class IgnoreRulesBenchmark {
+
+	private static final int NAMES = 1000000;
+
+	private static final String[] LOCAL_RULES = {
+		"Thumbs.db,IGNORE",
+		"^~\\$.*,IGNORE",
+		"^.*\\.(tmp|bak)$,IGNORE",
+		"^.*\\.sw[a-p]$,IGNORE"
+	};
+
+	// Mostly ordinary documents, with a share of each kind of ignored name
+	private static final String[] SUFFIXES = {
+		".docx", ".xlsx", ".pdf", ".jpg", ".txt", ".png", ".pptx", ".csv", ".iso", ".tmp", ".swp", ""
+	};
+
+	private File localRulesFile;
+	private IgnoreRules ignoreRules;
+	private List<String> rules;
+	private String[] names;
+
+	@Setup
+	public void setUp() throws IOException {
+		localRulesFile = File.createTempFile("exceptions", ".txt");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(localRulesFile), "UTF-8");
+		try {
+			for (String rule : LOCAL_RULES) {
+				writer.write(rule + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+		ignoreRules = new IgnoreRules(localRulesFile);
+
+		rules = readRules(IgnoreRules.class.getResourceAsStream("global.ignore"));
+		for (String rule : LOCAL_RULES) {
+			rules.add(rule.substring(0, rule.lastIndexOf(',')));
+		}
+
+		Random random = new Random(42);
+		names = new String[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			int kind = random.nextInt(20);
+			if (kind == 0) {
+				names[i] = ".hidden" + i;
+			} else if (kind == 1) {
+				names[i] = "~$report" + i + ".docx";
+			} else if (kind == 2) {
+				names[i] = "Thumbs.db";
+			} else {
+				names[i] = "document " + i + SUFFIXES[random.nextInt(SUFFIXES.length)];
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		localRulesFile.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public int compiledRules() {
+		int ignored = 0;
+		for (String name : names) {
+			if (ignoreRules.isIgnored(name)) {
+				ignored++;
+			}
+		}
+		return ignored;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NAMES)
+	public int rulePerName() {
+		int ignored = 0;
+		for (String name : names) {
+			for (String rule : rules) {
+				if (name.matches(rule)) {
+					ignored++;
+					break;
+				}
+			}
+		}
+		return ignored;
+	}
+
+	private static List<String> readRules(InputStream stream) {
+		List<String> rules = new ArrayList<String>();
+		Scanner scanner = new Scanner(stream, "UTF-8");
+		try {
+			while (scanner.hasNextLine()) {
+				String line = scanner.nextLine();
+				if (line.trim().length() > 0) {
+					rules.add(line.substring(0, line.lastIndexOf(',')));
+				}
+			}
+		} finally {
+			scanner.close();
+		}
+		return rules;
+	}
+}
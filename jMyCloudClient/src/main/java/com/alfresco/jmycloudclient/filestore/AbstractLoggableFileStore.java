@@ -20,7 +20,8 @@
 package com.alfresco.jmycloudclient.filestore;
 
 import java.io.InputStream;
-import java.util.Map;
+import java.util.List;
+import java.util.SortedMap;
 
 import org.slf4j.Logger;
 
@@ -43,21 +44,70 @@ public abstract class AbstractLoggableFileStore implements FileStore {
 	}
 	
 	@Override
-	public Map<String, Resource> getResources(String path, boolean deep) {
+	public SortedMap<String, Resource> getResources(String path, boolean deep) {
 		getLogger().debug(getLogMessage("Get resources for: [" + path + "] " + (deep?"DEEP":"SHALLOW")));
 		return listResources(path, deep);
 	}
 	
 	@Override
-	public InputStream getFile(Resource resource) {
+	public boolean visitResources(String path, boolean deep, ResourceVisitor visitor) {
+		getLogger().debug(getLogMessage("Visit resources for: [" + path + "] " + (deep?"DEEP":"SHALLOW")));
+		return walkResources(path, deep, visitor) != null;
+	}
+	
+	@Override
+	public Resource getResource(String path) {
+		getLogger().debug(getLogMessage("Get resource: " + path));
+		return statResource(path);
+	}
+	
+	@Override
+	public Transfer getFile(Resource resource) {
 		getLogger().debug(getLogMessage("Get file: " + resource.getPath()));
-		return getFileStreamFromResource(resource);
+		return openTransfer(resource);
+	}
+	
+	@Override
+	public Transfer getFile(Resource resource, long offset) {
+		return getFile(resource, offset, -1);
+	}
+	
+	@Override
+	public Transfer getFile(Resource resource, long offset, long length) {
+		getLogger().debug(getLogMessage("Get file: " + resource.getPath() + " from " + offset + ((length >= 0) ? ", " + length + " bytes" : "")));
+		return openTransfer(resource, offset, length);
+	}
+	
+	@Override
+	public long getResumeOffset(Resource resource) {
+		long offset = getPartialLength(resource);
+		if(offset > 0) {
+			getLogger().debug(getLogMessage("Partial file: " + resource.getPath() + " has " + offset + " bytes"));
+		}
+		return offset;
+	}
+	
+	@Override
+	public boolean putFile(Resource resource, InputStream stream) {
+		return putFile(resource, stream, 0);
+	}
+	
+	@Override
+	public boolean putFile(Resource resource, InputStream stream, long offset) {
+		getLogger().debug(getLogMessage("Put file: " + resource.getPath() + ((offset > 0) ? " from " + offset : "")));
+		return putFileFromStream(resource, stream, offset);
 	}
 	
 	@Override
-	public void putFile(Resource resource, InputStream stream) {
-		getLogger().debug(getLogMessage("Put file: " + resource.getPath()));
-		putFileFromStream(resource, stream);
+	public boolean putFile(Resource resource, FileStore source, long offset, int parts) {
+		getLogger().debug(getLogMessage("Put file: " + resource.getPath() + " in " + parts + " parts from " + offset));
+		return putFileFromRanges(resource, source, offset, parts);
+	}
+	
+	@Override
+	public boolean putFileRanges(Resource resource, FileStore source, List<long[]> ranges) {
+		getLogger().debug(getLogMessage("Put file ranges: " + resource.getPath() + " in " + ranges.size() + " ranges"));
+		return patchFileFromRanges(resource, source, ranges);
 	}
 	
 	@Override
@@ -76,11 +126,49 @@ public abstract class AbstractLoggableFileStore implements FileStore {
 	
 	protected abstract boolean canConnect();
 	
-	protected abstract Map<String, Resource> listResources(String path, boolean deep);
+	protected abstract SortedMap<String, Resource> listResources(String path, boolean deep);
+	
+	/**
+	 * Walk the tree a folder at a time, depth first, so only the listings of the 
+	 * folders above the one being visited are held. Stores that can stream a listing
+	 * override this
+	 * 
+	 * @return	The result of the last visit, CONTINUE unless the visitor stopped the 
+	 * 			walk, or NULL if a listing failed
+	 */
+	protected ResourceVisitor.Result walkResources(String path, boolean deep, ResourceVisitor visitor) {
+		SortedMap<String, Resource> children = listResources(path, false);
+		if(children == null) {
+			return null;
+		}
+		for(Resource child : children.values()) {
+			ResourceVisitor.Result result = visitor.visit(child);
+			if(result == ResourceVisitor.Result.TERMINATE) {
+				return result;
+			}
+			if(deep && child.isDirectory() && result == ResourceVisitor.Result.CONTINUE) {
+				ResourceVisitor.Result nested = walkResources(child.getPath(), deep, visitor);
+				if(nested != ResourceVisitor.Result.CONTINUE) {
+					return nested;
+				}
+			}
+		}
+		return ResourceVisitor.Result.CONTINUE;
+	}
+	
+	protected abstract Resource statResource(String path);
+	
+	protected abstract Transfer openTransfer(Resource resource);
+	
+	protected abstract Transfer openTransfer(Resource resource, long offset, long length);
+	
+	protected abstract long getPartialLength(Resource resource);
+	
+	protected abstract boolean putFileFromStream(Resource resource, InputStream stream, long offset);
 	
-	protected abstract InputStream getFileStreamFromResource(Resource resource);
+	protected abstract boolean putFileFromRanges(Resource resource, FileStore source, long offset, int parts);
 	
-	protected abstract void putFileFromStream(Resource resource, InputStream stream);
+	protected abstract boolean patchFileFromRanges(Resource resource, FileStore source, List<long[]> ranges);
 	
 	protected abstract void createDirectory(Resource resource);
 	
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProxySelector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+
+import com.googlecode.sardine.impl.SardineException;
+import com.googlecode.sardine.impl.SardineImpl;
+import com.googlecode.sardine.impl.handler.ValidatingResponseHandler;
+import com.googlecode.sardine.impl.io.ConsumingInputStream;
+import com.googlecode.sardine.impl.methods.HttpPropFind;
+
+/**
+ * Sardine client taking its connections from the {@link HttpTransport} shared by
+ * the process, sardine's default is a pool of two connections per client. Listings
+ * are streamed rather than built in memory by sardine. Each request runs in its own
+ * context, sardine shares one between every thread using the client.
+ */
+public class DavClient extends SardineImpl {
+	
+	// Depth header values
+	public static final String DEPTH_RESOURCE = "0";
+	public static final String DEPTH_MEMBERS = "1";
+	public static final String DEPTH_INFINITY = "infinity";
+	
+	private static final String UTF_8 = "UTF-8";
+	private static final String XML_CONTENT_TYPE = "text/xml; charset=utf-8";
+	
+	// Set by createDefaultClient from the SardineImpl constructor, so it can't have an initializer
+	private AbstractHttpClient httpClient;
+	// The hosts sent Basic credentials without waiting for a challenge
+	private volatile List<HttpHost> preemptiveHosts = Collections.emptyList();
+
+	public DavClient(String username, String password) {
+		super(username, password);
+	}
+	
+	/**
+	 * Send Basic credentials with every request to the host, saving the 401 round 
+	 * trip each request otherwise pays before it is sent again with them
+	 * 
+	 * @param hostname	The host, with a port if it isn't the scheme's default
+	 */
+	@Override
+	public void enablePreemptiveAuthentication(String hostname) {
+		String host = hostname;
+		int port = -1;
+		int colon = hostname.lastIndexOf(':');
+		if (colon > 0 && colon == hostname.indexOf(':')) {
+			host = hostname.substring(0, colon);
+			port = Integer.parseInt(hostname.substring(colon + 1));
+		}
+		
+		// The target of a request carries the port only if its URL does
+		List<HttpHost> hosts = new ArrayList<HttpHost>();
+		SchemeRegistry schemeRegistry = httpClient.getConnectionManager().getSchemeRegistry();
+		for (String scheme : schemeRegistry.getSchemeNames()) {
+			if (port < 0) {
+				hosts.add(new HttpHost(host, -1, scheme));
+			}
+			hosts.add(new HttpHost(host, (port < 0) ? schemeRegistry.getScheme(scheme).getDefaultPort() : port, scheme));
+		}
+		preemptiveHosts = hosts;
+	}
+	
+	@Override
+	public void disablePreemptiveAuthentication() {
+		preemptiveHosts = Collections.emptyList();
+	}
+	
+	/**
+	 * Run a PROPFIND for the properties a sync needs and stream the response through a
+	 * {@link PropfindParser}, resources are handed to the listener as they are read
+	 * rather than building the whole listing in memory. Sardine's own listing only 
+	 * takes a numeric depth, so there is no other way to ask it for Depth: infinity
+	 * 
+	 * @param url		The URL of the resource to list
+	 * @param depth		The Depth header value, 0, 1 or infinity
+	 * @param listener	Receives each resource, including the one at the URL
+	 * @throws IOException	If the request fails, a SardineException carries the status
+	 */
+	public void propfind(String url, String depth, final PropfindParser.Listener listener) throws IOException {
+		HttpPropFind propFind = new HttpPropFind(url);
+		propFind.setDepth(depth);
+		StringEntity body = new StringEntity(PropfindParser.REQUEST_BODY, UTF_8);
+		body.setContentType(XML_CONTENT_TYPE);
+		propFind.setEntity(body);
+		
+		execute(propFind, new ValidatingResponseHandler<Void>() {
+			
+			@Override
+			public Void handleResponse(HttpResponse response) throws IOException {
+				validateResponse(response);
+				HttpEntity entity = response.getEntity();
+				if (entity == null) {
+					throw new SardineException("No entity found in response", response.getStatusLine().getStatusCode(),
+							response.getStatusLine().getReasonPhrase());
+				}
+				InputStream stream = entity.getContent();
+				try {
+					new PropfindParser().parse(stream, listener);
+				} finally {
+					stream.close();
+				}
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Get a file. Unlike get(url) a failed request is aborted rather than left holding
+	 * its connection, and the transfer returned can abort the request if the body isn't
+	 * read to the end
+	 * 
+	 * @param url	The URL of the file
+	 * @return		The transfer of the file
+	 * @throws IOException	If the request fails, a SardineException carries the status
+	 */
+	public Transfer open(String url) throws IOException {
+		HttpGet get = new HttpGet(url);
+		HttpResponse response = execute(get);
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode < HttpStatus.SC_OK || statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+			get.abort();
+			throw new SardineException("Unexpected response", statusCode, response.getStatusLine().getReasonPhrase());
+		}
+		return new Transfer(new ConsumingInputStream(response), get);
+	}
+	
+	/**
+	 * Get part of a file with a Range request. The If-Range header makes the server 
+	 * send the whole file instead if it has changed since the rest was fetched, in 
+	 * which case no stream is returned
+	 * 
+	 * @param url		The URL of the file
+	 * @param offset	The first byte to get
+	 * @param length	The number of bytes to get, -1 for the rest of the file
+	 * @param validator	The etag or Last-Modified date of the version being fetched
+	 * @return			The transfer of the range, or NULL if the server sent the whole file
+	 * @throws IOException	If the request fails, a SardineException carries the status
+	 */
+	public Transfer open(String url, long offset, long length, String validator) throws IOException {
+		HttpGet get = new HttpGet(url);
+		get.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-" + ((length >= 0) ? String.valueOf(offset + length - 1) : ""));
+		get.setHeader(HttpHeaders.IF_RANGE, validator);
+		
+		HttpResponse response = execute(get);
+		int statusCode = response.getStatusLine().getStatusCode();
+		try {
+			if (statusCode == HttpStatus.SC_PARTIAL_CONTENT && isRangeFrom(response, offset)) {
+				return new Transfer(new ConsumingInputStream(response), get);
+			}
+			if (statusCode < HttpStatus.SC_OK || statusCode >= HttpStatus.SC_MULTIPLE_CHOICES) {
+				throw new SardineException("Unexpected response", statusCode, response.getStatusLine().getReasonPhrase());
+			}
+		} catch (IOException e) {
+			get.abort();
+			throw e;
+		}
+		// The whole file is on its way, drop the connection rather than read it
+		get.abort();
+		return null;
+	}
+	
+	private static boolean isRangeFrom(HttpResponse response, long offset) {
+		// Content-Range: bytes 1000-1999/2000
+		Header contentRange = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+		return contentRange != null && contentRange.getValue().trim().startsWith("bytes " + offset + "-");
+	}
+	
+	@Override
+	protected HttpResponse execute(HttpRequestBase request) throws IOException {
+		try {
+			return httpClient.execute(request, createContext());
+		} catch (IOException e) {
+			request.abort();
+			throw e;
+		}
+	}
+	
+	@Override
+	protected <T> T execute(HttpRequestBase request, ResponseHandler<T> responseHandler) throws IOException {
+		try {
+			return httpClient.execute(request, responseHandler, createContext());
+		} catch (IOException e) {
+			request.abort();
+			throw e;
+		}
+	}
+	
+	private HttpContext createContext() {
+		HttpContext context = new BasicHttpContext();
+		List<HttpHost> hosts = preemptiveHosts;
+		if (!hosts.isEmpty()) {
+			AuthCache authCache = new BasicAuthCache();
+			BasicScheme basicAuth = new BasicScheme();
+			for (HttpHost host : hosts) {
+				authCache.put(host, basicAuth);
+			}
+			context.setAttribute(ClientContext.AUTH_CACHE, authCache);
+		}
+		return context;
+	}
+	
+	// The factory methods below are called from the SardineImpl constructor
+	
+	@Override
+	protected SchemeRegistry createDefaultSchemeRegistry() {
+		return HttpTransport.getShared().getSchemeRegistry();
+	}
+	
+	@Override
+	protected ClientConnectionManager createDefaultConnectionManager(SchemeRegistry schemeRegistry) {
+		return HttpTransport.getShared().getConnectionManager();
+	}
+	
+	@Override
+	protected AbstractHttpClient createDefaultClient(ProxySelector selector) {
+		AbstractHttpClient client = super.createDefaultClient(selector);
+		client.setKeepAliveStrategy(HttpTransport.getShared().getKeepAliveStrategy());
+		client.addRequestInterceptor(HttpTransport.getShared().getRequestCounter());
+		client.addResponseInterceptor(HttpTransport.getShared().getChallengeCounter());
+		httpClient = client;
+		return client;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.alfresco.jmycloudclient.manager.BufferPool;
+
+/**
+ * A request body read from a range of a local file. The length is known up front,
+ * so the request is sent with a Content-Length rather than chunked. The range is 
+ * read with positional reads that leave the channel alone, so the body can be sent
+ * again, for example when a server answers Expect: 100-continue with 417. The 
+ * channel is closed by whoever opened it.
+ */
+public class FileChannelEntity extends AbstractHttpEntity {
+
+	private static final int BUFFER_SIZE = 256 * 1024;
+
+	private final FileChannel channel;
+	private final long position;
+	private final long length;
+
+	/**
+	 * Create a body from part of a file
+	 * 
+	 * @param channel	The open file
+	 * @param position	The first byte to send
+	 * @param length	The number of bytes to send
+	 */
+	public FileChannelEntity(FileChannel channel, long position, long length) {
+		this.channel = channel;
+		this.position = position;
+		this.length = length;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return length;
+	}
+
+	/**
+	 * Only used for logging and retries by the client, the stream runs to the end of the file
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		return Channels.newInputStream(channel.position(position));
+	}
+
+	/**
+	 * The file is read into a pooled direct buffer and copied to a pooled array for 
+	 * the stream, the same copy a read into a heap buffer makes through a temporary
+	 * direct buffer
+	 */
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		BufferPool pool = BufferPool.getShared();
+		ByteBuffer buffer = null;
+		ByteBuffer chunk = null;
+		try {
+			buffer = pool.acquireDirect(BUFFER_SIZE);
+			chunk = pool.acquireHeap(BUFFER_SIZE);
+			long written = 0;
+			while (written < length) {
+				buffer.clear();
+				buffer.limit((int) Math.min(BUFFER_SIZE, length - written));
+				int count = channel.read(buffer, position + written);
+				if (count < 0) {
+					throw new EOFException("File ended after " + written + " of " + length + " bytes");
+				}
+				buffer.flip();
+				buffer.get(chunk.array(), 0, count);
+				out.write(chunk.array(), 0, count);
+				written += count;
+			}
+			out.flush();
+		} finally {
+			pool.release(buffer);
+			pool.release(chunk);
+		}
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+}
@@ -20,7 +20,8 @@
 package com.alfresco.jmycloudclient.filestore;
 
 import java.io.InputStream;
-import java.util.Map;
+import java.util.List;
+import java.util.SortedMap;
 
 import com.alfresco.jmycloudclient.model.Resource;
 
@@ -30,11 +31,44 @@ public interface FileStore {
 	
 	boolean isValidConnection();
 	
-	Map<String, Resource> getResources(String path, boolean deep);
+	/**
+	 * List a folder, or the whole tree below it. Resources are keyed and ordered by
+	 * relative path, so the listings of two stores can be merged in one pass
+	 */
+	SortedMap<String, Resource> getResources(String path, boolean deep);
 	
-	InputStream getFile(Resource resource);
+	/**
+	 * Walk a folder, or the whole tree below it, handing each resource to the visitor
+	 * as it is read rather than building the listing first
+	 * 
+	 * @return	False if the listing failed, the visitor stopping it is not a failure
+	 */
+	boolean visitResources(String path, boolean deep, ResourceVisitor visitor);
 	
-	void putFile(Resource resource, InputStream stream);
+	Resource getResource(String path);
+	
+	Transfer getFile(Resource resource);
+	
+	Transfer getFile(Resource resource, long offset);
+	
+	Transfer getFile(Resource resource, long offset, long length);
+	
+	long getResumeOffset(Resource resource);
+	
+	boolean putFile(Resource resource, InputStream stream);
+	
+	boolean putFile(Resource resource, InputStream stream, long offset);
+	
+	boolean putFile(Resource resource, FileStore source, long offset, int parts);
+	
+	/**
+	 * Replace the changed ranges of a file the store already holds, read from the
+	 * source. The file is only replaced once all the ranges have been written
+	 * 
+	 * @param ranges	The offset and length of each range
+	 * @return			False if the file is unchanged and has to be sent whole
+	 */
+	boolean putFileRanges(Resource resource, FileStore source, List<long[]> ranges);
 	
 	void putDirectory(Resource resource);
 	
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * State kept on disk per path, such as upload checkpoints and block signatures, is
+ * stored under a hash of a key naming the path. Paths and URLs can be longer than a 
+ * file name and use characters a file name can't
+ */
+public final class HashedFiles {
+
+	private HashedFiles() {
+	}
+
+	/**
+	 * Get the file holding the state for a key
+	 * 
+	 * @param folder	The folder the state is kept in
+	 * @param key		The key the state is stored under
+	 * @return			The file named by the MD5 hex of the key
+	 */
+	public static File getFile(File folder, String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash) {
+				name.append(String.format("%02x", Integer.valueOf(b & 0xff)));
+			}
+			return new File(folder, name.toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
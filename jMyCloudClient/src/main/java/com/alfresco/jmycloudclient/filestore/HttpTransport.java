@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alfresco.jmycloudclient.manager.AppProperties;
+
+/**
+ * The connections to the server, shared by every {@link DavClient} in the process.
+ * The sync store, the login check and the network and site pickers each have their
+ * own client for their own credentials, but take connections from one pool, so a 
+ * connection opened by one is kept alive and reused by the next instead of paying
+ * for a new TCP and TLS handshake. The TLS sessions come from one SSLContext, so 
+ * even a new connection resumes the session of an earlier one. Connections left 
+ * idle are closed by a background thread before the server drops them. The requests
+ * sent and the authentication challenges answered are counted, so the round trips 
+ * saved by preemptive authentication can be seen in the log.
+ */
+public class HttpTransport {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HttpTransport.class);
+
+	private static HttpTransport shared = null;
+
+	private final SchemeRegistry schemeRegistry;
+	private final ThreadSafeClientConnManager connectionManager;
+	private final ConnectionKeepAliveStrategy keepAliveStrategy;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong challenges = new AtomicLong();
+
+	private final HttpRequestInterceptor requestCounter = new HttpRequestInterceptor() {
+
+		@Override
+		public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+			requests.incrementAndGet();
+		}
+	};
+
+	private final HttpResponseInterceptor challengeCounter = new HttpResponseInterceptor() {
+
+		@Override
+		public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+			if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+				challenges.incrementAndGet();
+			}
+		}
+	};
+
+	private HttpTransport(int connections, final long idleMillis) {
+		schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+		schemeRegistry.register(new Scheme("https", 443, createSecureSocketFactory()));
+
+		connectionManager = new ThreadSafeClientConnManager(schemeRegistry);
+		connectionManager.setDefaultMaxPerRoute(connections);
+		connectionManager.setMaxTotal(connections);
+
+		// Servers that don't say how long they keep a connection open are assumed to keep it for the idle time
+		keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return (duration > 0) ? Math.min(duration, idleMillis) : idleMillis;
+			}
+		};
+
+		Thread evictor = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				evictIdleConnections(idleMillis);
+			}
+		}, "http-evictor");
+		evictor.setDaemon(true);
+		evictor.start();
+	}
+
+	/**
+	 * Get the transport, created on first use with a pool large enough for every 
+	 * concurrent transfer and listing, plus the setup dialog's requests
+	 * 
+	 * @return	The transport shared by the process
+	 */
+	public static synchronized HttpTransport getShared() {
+		if (shared == null) {
+			// Every download thread can be fetching all the parts of a segmented download at once
+			int connections = AppProperties.getInt(AppProperties.UPLOAD_THREADS, 1)
+					+ AppProperties.getInt(AppProperties.DOWNLOAD_THREADS, 1) * Math.max(1, AppProperties.getInt(AppProperties.SEGMENTED_DOWNLOAD_PARTS, 1))
+					+ AppProperties.getInt(AppProperties.LISTING_THREADS, 1) + 1;
+			shared = new HttpTransport(connections, AppProperties.getInt(AppProperties.HTTP_IDLE_SECONDS, 30) * 1000L);
+		}
+		return shared;
+	}
+
+	public SchemeRegistry getSchemeRegistry() {
+		return schemeRegistry;
+	}
+
+	public ClientConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	public ConnectionKeepAliveStrategy getKeepAliveStrategy() {
+		return keepAliveStrategy;
+	}
+
+	/**
+	 * Counts each request as it is sent, including a request sent again with 
+	 * credentials after a challenge
+	 */
+	public HttpRequestInterceptor getRequestCounter() {
+		return requestCounter;
+	}
+
+	/**
+	 * Counts each 401 response, the round trips preemptive authentication saves
+	 */
+	public HttpResponseInterceptor getChallengeCounter() {
+		return challengeCounter;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getChallengeCount() {
+		return challenges.get();
+	}
+
+	/**
+	 * Log the requests and challenges counted since the last call, once a sync
+	 * has run
+	 */
+	public void logRequestCounts() {
+		long sent = requests.getAndSet(0);
+		long challenged = challenges.getAndSet(0);
+		LOGGER.info("Sent " + sent + " requests, " + challenged + " challenged for authentication");
+	}
+
+	private void evictIdleConnections(long idleMillis) {
+		long period = Math.max(1000, idleMillis / 2);
+		try {
+			while (true) {
+				Thread.sleep(period);
+				connectionManager.closeExpiredConnections();
+				connectionManager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			LOGGER.debug("Idle connection evictor stopped");
+		}
+	}
+
+	private static SSLSocketFactory createSecureSocketFactory() {
+		try {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(null, null, null);
+			return new SSLSocketFactory(context);
+		} catch (GeneralSecurityException e) {
+			LOGGER.error("Failed to create a TLS context, using the default: " + e.toString());
+			return SSLSocketFactory.getSocketFactory();
+		}
+	}
+}
@@ -23,15 +23,40 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alfresco.jmycloudclient.manager.AppProperties;
+import com.alfresco.jmycloudclient.manager.BufferPool;
 import com.alfresco.jmycloudclient.model.Resource;
 
 
@@ -40,10 +65,37 @@ public class LocalFileStore extends AbstractLoggableFileStore {
 	private static final Logger LOGGER = LoggerFactory.getLogger(LocalFileStore.class);
 			
 	private static final String NAME = "Local";
+	// Downloads are written to a hidden partial file next to the target, along with a checkpoint
+	// of the version being fetched, and renamed into place once complete
+	private static final String PARTIAL_SUFFIX = ".partial";
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	// Copy of a file being patched with changed ranges, renamed into place once all are written
+	private static final String PATCH_SUFFIX = ".patch";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int TRANSFER_SIZE = 1024 * 1024;
+	// Bytes received between checkpoints of a download, each one flushes the partial file
+	private static final long CHECKPOINT_INTERVAL = 8L * 1024 * 1024;
+	// When a downloaded file is flushed to disk: never, before it is published, or also after the rename
+	private static final String FSYNC_NONE = "none";
+	private static final String FSYNC_FULL = "full";
 	private final String rootPath;
+	private final String fsyncPolicy;
+	// Shared by all downloads, NULL until segmented downloads are enabled
+	private ExecutorService partThreads = null;
 
 	public LocalFileStore(String basePath) {
 		this.rootPath = basePath;
+		this.fsyncPolicy = AppProperties.getString(AppProperties.LOCAL_FSYNC);
+	}
+	
+	/**
+	 * Fetch large files in parts at the same time. The threads are shared by every 
+	 * download, so they bound the parts in flight however many files are fetched
+	 * 
+	 * @param partThreads	The threads that fetch the parts
+	 */
+	public void enableSegmentedDownload(ExecutorService partThreads) {
+		this.partThreads = partThreads;
 	}
 	
 	@Override
@@ -68,33 +120,140 @@ public class LocalFileStore extends AbstractLoggableFileStore {
 	}
 	
 	@Override
-	protected Map<String, Resource> listResources(String path, boolean deep) {
-		HashMap<String, Resource> resources = null;
-		File[] children = getFileFromRelativePath(path).listFiles();
-		if(children != null) {
-			resources = new HashMap<String, Resource>();
-			for(int i = 0; i < children.length; i++) {
-				File file = children[i];
-				String relPath = getRelativePath(file.getPath());
-				Resource res = new Resource(file.getName(), relPath, file.lastModified(), file.isDirectory(), file.length());
-				resources.put(relPath, res);
-				if(deep && file.isDirectory()) {
-					Map<String, Resource> nested = listResources(file.getPath(), deep);
-					if(nested != null) {
-						resources.putAll(nested);
+	protected SortedMap<String, Resource> listResources(String path, boolean deep) {
+		final SortedMap<String, Resource> resources = new TreeMap<String, Resource>();
+		ResourceVisitor.Result result = walkResources(path, deep, new ResourceVisitor() {
+			
+			@Override
+			public Result visit(Resource resource) {
+				resources.put(resource.getPath(), resource);
+				return Result.CONTINUE;
+			}
+		});
+		return (result != null) ? resources : null;
+	}
+	
+	/**
+	 * Walk a folder with the file system's own tree walker, which reads the attributes
+	 * of each entry with the directory rather than a stat call for each of them. Links
+	 * to folders are followed, a link back up the tree, a broken link or an entry that 
+	 * can't be read is logged and left out without stopping the walk. Only the folder
+	 * itself failing to list fails the walk
+	 */
+	@Override
+	protected ResourceVisitor.Result walkResources(String path, boolean deep, final ResourceVisitor visitor) {
+		final Path folder = getFileFromRelativePath(path).toPath();
+		final String prefix = path.endsWith("/") ? path : path + "/";
+		final ResourceVisitor.Result[] last = {ResourceVisitor.Result.CONTINUE};
+		final boolean[] failed = {false};
+		
+		try {
+			Files.walkFileTree(folder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), deep ? Integer.MAX_VALUE : 1, new SimpleFileVisitor<Path>() {
+				
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+					if(dir.equals(folder)) {
+						return FileVisitResult.CONTINUE;
 					}
+					return visit(dir, attributes);
 				}
-			}
+				
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+					if(file.equals(folder)) {
+						// Not a folder
+						failed[0] = true;
+						return FileVisitResult.TERMINATE;
+					}
+					if(attributes.isSymbolicLink() || attributes.isOther()) {
+						// A link that leads nowhere, or a device, pipe or socket that can't be synced
+						LOGGER.debug("Skipping " + file);
+						return FileVisitResult.CONTINUE;
+					}
+					return visit(file, attributes);
+				}
+				
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e) {
+					if(file.equals(folder)) {
+						failed[0] = true;
+						LOGGER.error("Failed to list " + file + ": " + e.toString());
+						return FileVisitResult.TERMINATE;
+					}
+					if(e instanceof FileSystemLoopException) {
+						LOGGER.warn("Skipping link back to a folder above it: " + file);
+					} else if(!(e instanceof NoSuchFileException)) {
+						LOGGER.warn("Skipping " + file + ": " + e.toString());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					if(e != null) {
+						if(dir.equals(folder)) {
+							failed[0] = true;
+						}
+						LOGGER.warn("Failed to list all of " + dir + ": " + e.toString());
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				
+				private FileVisitResult visit(Path file, BasicFileAttributes attributes) {
+					String relPath = prefix + folder.relativize(file).toString().replace(File.separatorChar, '/');
+					last[0] = visitor.visit(createResource(file, relPath, attributes));
+					if(last[0] == ResourceVisitor.Result.TERMINATE) {
+						return FileVisitResult.TERMINATE;
+					}
+					if(last[0] == ResourceVisitor.Result.SKIP_SUBTREE) {
+						last[0] = ResourceVisitor.Result.CONTINUE;
+						return attributes.isDirectory() ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			LOGGER.error("Failed to list " + folder + ": " + e.toString());
+			return null;
 		}
-		
-		return resources;
+		return failed[0] ? null : last[0];
 	}
 	
 	@Override
-	protected InputStream getFileStreamFromResource(Resource resource) {
+	protected Resource statResource(String path) {
+		Path file = getFileFromRelativePath(path).toPath();
+		try {
+			return createResource(file, path, Files.readAttributes(file, BasicFileAttributes.class));
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			LOGGER.warn("Failed to read attributes of " + file + ": " + e.toString());
+			return null;
+		}
+	}
+	
+	/**
+	 * Make a resource from the attributes of a file, read in one call rather than a
+	 * call each for the modified time, type and size, along with the file key that
+	 * identifies it
+	 * 
+	 * @param file			The file
+	 * @param path			Its path relative to the root
+	 * @param attributes	Its attributes
+	 * @return				The resource
+	 */
+	private static Resource createResource(Path file, String path, BasicFileAttributes attributes) {
+		Path name = file.getFileName();
+		Object fileKey = attributes.fileKey();
+		return new Resource((name != null) ? name.toString() : "", path, attributes.lastModifiedTime().toMillis(), attributes.isDirectory(), 
+				attributes.size(), null, (fileKey != null) ? fileKey.toString() : null);
+	}
+	
+	@Override
+	protected Transfer openTransfer(Resource resource) {
 		File file = getFileFromResource(resource);
 		try {
-			return new FileInputStream(file);
+			return new Transfer(new FileInputStream(file));
 		} catch (FileNotFoundException e) {
 			getLogger().error("Failed in local get: " + resource.getPath());
 			getLogger().error(e.toString());
@@ -102,18 +261,371 @@ public class LocalFileStore extends AbstractLoggableFileStore {
 		}
 	}
 
+	/**
+	 * The stream isn't cut off at the end of the range, callers read the length they asked for
+	 */
 	@Override
-	protected void putFileFromStream(Resource resource, InputStream stream) {
+	protected Transfer openTransfer(Resource resource, long offset, long length) {
+		File file = getFileFromResource(resource);
+		FileInputStream stream = null;
 		try {
-			ReadableByteChannel rbc = Channels.newChannel(stream);
-			FileOutputStream fos;
-			fos = new FileOutputStream(getAbsolutePath(resource.getPath()));
-			fos.getChannel().transferFrom(rbc, 0, 1 << 24);
-			getFileFromResource(resource).setLastModified(resource.getModified());
-		} catch (Exception e) {
+			stream = new FileInputStream(file);
+			stream.getChannel().position(offset);
+			return new Transfer(stream);
+		} catch (IOException e) {
+			getLogger().error("Failed in local get: " + resource.getPath());
+			getLogger().error(e.toString());
+			if(stream != null) {
+				new Transfer(stream).close();
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Resume from the bytes the checkpoint records as received, if it was written for
+	 * the version of the file being fetched. The length of the partial file is no 
+	 * guide, it is allocated in full before any bytes arrive
+	 */
+	@Override
+	protected long getPartialLength(Resource resource) {
+		File partial = getPartialFile(resource);
+		String[] checkpoint = partial.isFile() ? readCheckpoint(resource) : null;
+		if(checkpoint == null) {
+			discardPartial(resource);
+			return 0;
+		}
+		
+		long received = Long.parseLong(checkpoint[1]);
+		if(resource.getSize() < 0 || received >= resource.getSize() || received > partial.length() 
+				|| !getValidator(resource).equals(checkpoint[0])) {
+			// A different version of the file, or one that can't be resumed
+			discardPartial(resource);
+			return 0;
+		}
+		return received;
+	}
+	
+	/**
+	 * Write a file to its partial file, starting at an offset if resuming. The partial 
+	 * file is allocated up front when the size is known and published over the target
+	 * in one rename once all of it has been received, so readers only ever see the old 
+	 * file or the whole new one. The bytes received are recorded in the checkpoint as 
+	 * they are flushed, so the next attempt can carry on from there even if this one 
+	 * never gets to clean up. The partial file keeps its full length when a download
+	 * fails, its length never marks the progress
+	 */
+	@Override
+	protected boolean putFileFromStream(Resource resource, InputStream stream, long offset) {
+		File partial = getPartialFile(resource);
+		long size = resource.getSize();
+		try {
+			if(offset == 0) {
+				writeCheckpoint(resource, 0);
+			} else if(partial.length() < offset) {
+				throw new IOException("Partial file has " + partial.length() + " bytes, expected " + offset);
+			}
+			
+			long received = offset;
+			RandomAccessFile file = new RandomAccessFile(partial, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				if(size > offset) {
+					file.setLength(size);
+				}
+				channel.position(offset);
+				try {
+					while(copy(stream, channel, CHECKPOINT_INTERVAL) == CHECKPOINT_INTERVAL) {
+						writeProgress(resource, channel, channel.position());
+					}
+				} catch (IOException e) {
+					keepProgress(resource, channel, channel.position());
+					throw e;
+				}
+				received = channel.position();
+				if(size < 0 && file.length() != received) {
+					// Nothing was allocated, but a longer partial could be left from a failed attempt
+					file.setLength(received);
+				}
+				if(size >= 0 && received != size) {
+					keepProgress(resource, channel, received);
+					throw new IOException("Received " + received + " of " + size + " bytes, keeping partial file");
+				}
+				force(channel);
+			} finally {
+				file.close();
+			}
+			publish(resource, partial);
+		} catch (IOException e) {
 			getLogger().error("Failed in local put: " + resource.getPath());
 			getLogger().error(e.toString());
-			return;
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Copy the stream into the channel at its position until the stream ends or the 
+	 * limit is reached. Another local file is copied by the file system without passing
+	 * through the heap, any other stream through pooled buffers. The position is moved
+	 * on after every chunk written, so it marks the end of what was kept if the stream 
+	 * fails. The stream is read directly rather than through Channels.newChannel, which
+	 * keeps reading while bytes are available and drops what it has read if a later 
+	 * read fails
+	 * 
+	 * @return	The bytes copied, less than the limit only if the stream ended
+	 */
+	private static long copy(InputStream stream, FileChannel channel, long limit) throws IOException {
+		long start = channel.position();
+		long end = start + limit;
+		if(stream instanceof FileInputStream) {
+			FileChannel source = ((FileInputStream) stream).getChannel();
+			long count;
+			while(channel.position() < end 
+					&& (count = channel.transferFrom(source, channel.position(), Math.min(TRANSFER_SIZE, end - channel.position()))) > 0) {
+				channel.position(channel.position() + count);
+			}
+			return channel.position() - start;
+		}
+		
+		// Writing a heap buffer would go through a temporary direct buffer cached per thread
+		BufferPool pool = BufferPool.getShared();
+		ByteBuffer chunk = null;
+		ByteBuffer buffer = null;
+		try {
+			chunk = pool.acquireHeap(BUFFER_SIZE);
+			buffer = pool.acquireDirect(TRANSFER_SIZE);
+			long read = channel.position();
+			int count;
+			try {
+				while(read < end && (count = stream.read(chunk.array(), 0, (int) Math.min(BUFFER_SIZE, end - read))) >= 0) {
+					buffer.put(chunk.array(), 0, count);
+					read += count;
+					if(buffer.remaining() < BUFFER_SIZE) {
+						write(buffer, channel);
+					}
+				}
+			} finally {
+				// Keep what was read before a failure
+				write(buffer, channel);
+			}
+		} finally {
+			pool.release(chunk);
+			pool.release(buffer);
+		}
+		return channel.position() - start;
+	}
+	
+	private static void write(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Fetch the rest of a file from the source in parts at the same time, each part 
+	 * written at its own position in the partial file. The partial file is allocated 
+	 * up front and only moved into place once every part has arrived in full. Each time
+	 * the parts received without a gap grow, counting up from the first part, they are 
+	 * recorded in the checkpoint, so the next attempt can resume from there. Before the
+	 * file is published the source is checked to still hold the version the parts were
+	 * fetched for, otherwise the partial file is discarded
+	 */
+	@Override
+	protected boolean putFileFromRanges(final Resource resource, final FileStore source, long offset, int parts) {
+		if(partThreads == null) {
+			getLogger().error("Segmented downloads are not enabled: " + resource.getPath());
+			return false;
+		}
+		File partial = getPartialFile(resource);
+		final long size = resource.getSize();
+		long received = offset;
+		final AtomicBoolean failed = new AtomicBoolean(false);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		try {
+			if(offset == 0) {
+				writeCheckpoint(resource, 0);
+			} else if(partial.length() < offset) {
+				throw new IOException("Partial file has " + partial.length() + " bytes, expected " + offset);
+			}
+			
+			RandomAccessFile file = new RandomAccessFile(partial, "rw");
+			try {
+				file.setLength(size);
+				final FileChannel channel = file.getChannel();
+				long partLength = (size - offset) / parts;
+				
+				for(int i = 0; i < parts; i++) {
+					final long start = offset + i * partLength;
+					final long length = (i == parts - 1) ? size - start : partLength;
+					results.add(partThreads.submit(new Callable<Long>() {
+						
+						@Override
+						public Long call() throws IOException {
+							return Long.valueOf(fetchPart(resource, source, channel, start, length, failed));
+						}
+					}));
+				}
+				
+				// Bytes received without a gap, counting up from the first part
+				boolean contiguous = true;
+				for(int i = 0; i < parts; i++) {
+					long expected = (i == parts - 1) ? size - (offset + i * partLength) : partLength;
+					long partReceived = getPartResult(results.get(i));
+					if(contiguous) {
+						received += partReceived;
+						contiguous = (partReceived == expected);
+						if(received > offset && received < size) {
+							keepProgress(resource, channel, received);
+						}
+					}
+				}
+				if(received != size) {
+					throw new IOException("Received " + (received - offset) + " of " + (size - offset) + " bytes without a gap, keeping partial file");
+				}
+				force(channel);
+			} finally {
+				file.close();
+			}
+			
+			if(!isSameVersion(resource, source.getResource(resource.getPath()))) {
+				discardPartial(resource);
+				throw new IOException("Changed on " + source.getName() + " while its parts were fetched, discarding partial file");
+			}
+			publish(resource, partial);
+		} catch (IOException e) {
+			getLogger().error("Failed in local put parts: " + resource.getPath());
+			getLogger().error(e.toString());
+			// Stop the parts still running or waiting for a thread
+			failed.set(true);
+			for(Future<Long> result : results) {
+				result.cancel(false);
+			}
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Check the source still lists the version being fetched, by etag if both have
+	 * one, otherwise by size and modified time
+	 */
+	private static boolean isSameVersion(Resource fetched, Resource current) {
+		if(current == null || current.getSize() != fetched.getSize()) {
+			return false;
+		}
+		if(fetched.getEtag() != null && current.getEtag() != null) {
+			return fetched.getEtag().equals(current.getEtag());
+		}
+		return current.getModified() == fetched.getModified();
+	}
+	
+	/**
+	 * Fetch one part and write it at its position, stops early once another part fails
+	 * 
+	 * @return	The number of bytes written from the start of the part
+	 */
+	private long fetchPart(Resource resource, FileStore source, FileChannel channel, long start, long length, AtomicBoolean failed) throws IOException {
+		Transfer transfer = source.getFile(resource, start, length);
+		if(transfer == null) {
+			failed.set(true);
+			return 0;
+		}
+		InputStream stream = transfer.getStream();
+		long written = 0;
+		BufferPool pool = BufferPool.getShared();
+		ByteBuffer chunk = null;
+		ByteBuffer data = null;
+		try {
+			chunk = pool.acquireHeap(BUFFER_SIZE);
+			data = pool.acquireDirect(BUFFER_SIZE);
+			while(written < length && !failed.get()) {
+				int count = stream.read(chunk.array(), 0, (int) Math.min(BUFFER_SIZE, length - written));
+				if(count < 0) {
+					break;
+				}
+				data.clear();
+				data.put(chunk.array(), 0, count);
+				data.flip();
+				while(data.hasRemaining()) {
+					channel.write(data, start + written + data.position());
+				}
+				written += count;
+			}
+		} catch (IOException e) {
+			getLogger().error("Failed to fetch part at " + start + " of " + resource.getPath() + ": " + e.toString());
+		} finally {
+			pool.release(chunk);
+			pool.release(data);
+			if(written == length) {
+				transfer.complete();
+			}
+			transfer.close();
+		}
+		if(written < length) {
+			failed.set(true);
+		}
+		return written;
+	}
+	
+	private long getPartResult(Future<Long> result) throws IOException {
+		try {
+			return result.get().longValue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for parts");
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause().toString());
+		}
+	}
+	
+	/**
+	 * Write the changed ranges into a copy of the file, published over it once all of
+	 * them are written, so readers never see a file with only some of the ranges
+	 */
+	@Override
+	protected boolean patchFileFromRanges(Resource resource, FileStore source, List<long[]> ranges) {
+		File patch = getHiddenSibling(resource, PATCH_SUFFIX);
+		try {
+			Files.copy(getFileFromResource(resource).toPath(), patch.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			RandomAccessFile file = new RandomAccessFile(patch, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				for(long[] range : ranges) {
+					writeRange(resource, source, channel, range[0], range[1]);
+				}
+				file.setLength(resource.getSize());
+				force(channel);
+			} finally {
+				file.close();
+			}
+			publish(resource, patch);
+		} catch (IOException e) {
+			getLogger().error("Failed in local put ranges: " + resource.getPath());
+			getLogger().error(e.toString());
+			patch.delete();
+			return false;
+		}
+		return true;
+	}
+	
+	private void writeRange(Resource resource, FileStore source, FileChannel channel, long offset, long length) throws IOException {
+		Transfer transfer = source.getFile(resource, offset, length);
+		if(transfer == null) {
+			throw new IOException("Failed to read range at " + offset);
+		}
+		try {
+			channel.position(offset);
+			copy(transfer.getStream(), channel, length);
+			long written = channel.position() - offset;
+			if(written != length) {
+				throw new IOException("Stream ended after " + written + " of " + length + " bytes");
+			}
+			transfer.complete();
+		} finally {
+			transfer.close();
 		}
 	}
 	
@@ -154,15 +666,134 @@ public class LocalFileStore extends AbstractLoggableFileStore {
 		}
 	}
 	
+	/**
+	 * Move a complete partial file over the target. The modified date is set first so
+	 * the file never appears with the wrong date, and the move is a single rename 
+	 * where the file system supports it
+	 */
+	private void publish(Resource resource, File partial) throws IOException {
+		partial.setLastModified(resource.getModified());
+		Path target = getFileFromResource(resource).toPath();
+		try {
+			Files.move(partial.toPath(), target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partial.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		if(FSYNC_FULL.equals(fsyncPolicy)) {
+			forceDirectory(target.getParent());
+		}
+		getCheckpointFile(resource).delete();
+	}
+	
+	private void force(FileChannel channel) throws IOException {
+		if(!FSYNC_NONE.equals(fsyncPolicy)) {
+			channel.force(true);
+		}
+	}
+	
+	/**
+	 * Make the rename durable, not every platform can open a folder to sync it
+	 */
+	private void forceDirectory(Path directory) {
+		try {
+			FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			getLogger().debug("Cannot sync folder " + directory + ": " + e.toString());
+		}
+	}
+	
+	private File getPartialFile(Resource resource) {
+		return getHiddenSibling(resource, PARTIAL_SUFFIX);
+	}
+	
+	private File getCheckpointFile(Resource resource) {
+		return getHiddenSibling(resource, CHECKPOINT_SUFFIX);
+	}
+	
+	private File getHiddenSibling(Resource resource, String suffix) {
+		File file = getFileFromResource(resource);
+		return new File(file.getParentFile(), "." + file.getName() + suffix);
+	}
+	
+	private void discardPartial(Resource resource) {
+		getPartialFile(resource).delete();
+		getCheckpointFile(resource).delete();
+	}
+	
+	/**
+	 * The version of the file being fetched, the etag if the source has one
+	 */
+	private static String getValidator(Resource resource) {
+		return (resource.getEtag() != null) ? resource.getEtag() : resource.getSize() + "/" + resource.getModified();
+	}
+	
+	/**
+	 * Record the bytes received once they are on disk, the checkpoint never claims 
+	 * bytes a crash could still lose
+	 */
+	private void writeProgress(Resource resource, FileChannel channel, long received) throws IOException {
+		force(channel);
+		writeCheckpoint(resource, received);
+	}
+	
+	/**
+	 * Record the bytes received on the way out of a failed download, a failure to do so
+	 * only costs the progress since the last checkpoint
+	 */
+	private void keepProgress(Resource resource, FileChannel channel, long received) {
+		try {
+			writeProgress(resource, channel, received);
+		} catch (IOException e) {
+			getLogger().error("Failed to checkpoint " + resource.getPath() + ": " + e.toString());
+		}
+	}
+	
+	private void writeCheckpoint(Resource resource, long received) throws IOException {
+		OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(getCheckpointFile(resource)), "UTF-8");
+		try {
+			writer.write(getValidator(resource) + "\n" + received + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * @return	The validator and the bytes received, or NULL if there is no readable checkpoint
+	 */
+	private String[] readCheckpoint(Resource resource) {
+		File checkpoint = getCheckpointFile(resource);
+		if(!checkpoint.isFile()) {
+			return null;
+		}
+		Scanner scanner = null;
+		try {
+			scanner = new Scanner(checkpoint, "UTF-8");
+			String validator = scanner.hasNextLine() ? scanner.nextLine() : null;
+			String received = scanner.hasNextLine() ? scanner.nextLine() : null;
+			if(validator == null || received == null || !received.matches("\\d+")) {
+				return null;
+			}
+			return new String[] {validator, received};
+		} catch (IOException e) {
+			getLogger().error(e.toString());
+			return null;
+		} finally {
+			if(scanner != null) {
+				scanner.close();
+			}
+		}
+	}
+	
 	private String getAbsolutePath(String relativePath) {
 		String localPath = rootPath + relativePath;
 		return localPath;
 	}
 	
-	private String getRelativePath(String absolutePath) {
-		return absolutePath.substring(rootPath.length());
-	}
-	
 	private File getFileFromResource(Resource resource) {
 		return getFileFromRelativePath(resource.getPath());
 	}
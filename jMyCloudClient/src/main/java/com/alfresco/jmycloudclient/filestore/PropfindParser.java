@@ -0,0 +1,252 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming parser for PROPFIND multistatus responses. Each response element is
+ * handed to a listener as soon as it has been read, so memory use doesn't grow
+ * with the number of members in the listing. Only the properties asked for in
+ * {@link #REQUEST_BODY} are read, anything else in the response is skipped.
+ */
+public class PropfindParser {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PropfindParser.class);
+
+	/**
+	 * PROPFIND body asking for just the properties a sync needs
+	 */
+	public static final String REQUEST_BODY = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<D:propfind xmlns:D=\"DAV:\"><D:prop>"
+			+ "<D:getlastmodified/><D:getcontentlength/><D:resourcetype/><D:getetag/>"
+			+ "</D:prop></D:propfind>";
+
+	private static final String DAV_NAMESPACE = "DAV:";
+	private static final String RESPONSE = "response";
+	private static final String HREF = "href";
+	private static final String PROPSTAT = "propstat";
+	private static final String STATUS = "status";
+	private static final String GET_LAST_MODIFIED = "getlastmodified";
+	private static final String GET_CONTENT_LENGTH = "getcontentlength";
+	private static final String COLLECTION = "collection";
+	private static final String GET_ETAG = "getetag";
+
+	// Last-Modified uses the RFC 1123 date format
+	private static final String LAST_MODIFIED_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+	/**
+	 * Receives the resources of a listing as they are parsed
+	 */
+	public interface Listener {
+
+		/**
+		 * Called once for each resource in the response
+		 * 
+		 * @param href			The decoded path of the resource
+		 * @param collection	True if the resource is a collection
+		 * @param modified		The last modified time in milliseconds, 0 if not known
+		 * @param contentLength	The size in bytes, -1 if not known
+		 * @param etag			The entity tag, NULL if not known
+		 */
+		void resource(String href, boolean collection, long modified, long contentLength, String etag);
+	}
+
+	// Not thread safe, a parser is only used for one response
+	private final SimpleDateFormat dateFormat;
+
+	// State of the response element being read
+	private String href;
+	private boolean collection;
+	private long modified;
+	private long contentLength;
+	private String etag;
+
+	// Properties of the propstat element being read, only kept if its status is 2xx
+	private boolean statCollection;
+	private long statModified;
+	private long statContentLength;
+	private String statEtag;
+	private boolean statOk;
+
+	public PropfindParser() {
+		dateFormat = new SimpleDateFormat(LAST_MODIFIED_FORMAT, Locale.US);
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
+
+	/**
+	 * Parse a multistatus response
+	 * 
+	 * @param stream	The response body, not closed by the parser
+	 * @param listener	Receives each resource in the response
+	 * @throws IOException	If the response can't be read or isn't valid XML
+	 */
+	public void parse(InputStream stream, Listener listener) throws IOException {
+		XMLStreamReader reader = null;
+		try {
+			reader = XML_INPUT_FACTORY.createXMLStreamReader(stream);
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if ((event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) 
+						|| !DAV_NAMESPACE.equals(reader.getNamespaceURI())) {
+					continue;
+				}
+				
+				String element = reader.getLocalName();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					if (PROPSTAT.equals(element)) {
+						endPropstat();
+					} else if (RESPONSE.equals(element)) {
+						endResponse(listener);
+					}
+				} else if (RESPONSE.equals(element)) {
+					startResponse();
+				} else if (HREF.equals(element) && href == null) {
+					href = reader.getElementText().trim();
+				} else if (PROPSTAT.equals(element)) {
+					startPropstat();
+				} else if (STATUS.equals(element)) {
+					statOk = isOk(reader.getElementText());
+				} else if (GET_LAST_MODIFIED.equals(element)) {
+					statModified = parseDate(reader.getElementText());
+				} else if (GET_CONTENT_LENGTH.equals(element)) {
+					statContentLength = parseLong(reader.getElementText());
+				} else if (GET_ETAG.equals(element)) {
+					statEtag = reader.getElementText().trim();
+				} else if (COLLECTION.equals(element)) {
+					statCollection = true;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Invalid PROPFIND response: " + e.getMessage());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					LOGGER.error(e.toString());
+				}
+			}
+		}
+	}
+
+	private void startResponse() {
+		href = null;
+		collection = false;
+		modified = 0;
+		contentLength = -1;
+		etag = null;
+	}
+
+	private void endResponse(Listener listener) {
+		if (href == null) {
+			LOGGER.warn("Ignoring PROPFIND response without href");
+			return;
+		}
+		String path = decodeHref(href);
+		if (path != null) {
+			listener.resource(path, collection, modified, contentLength, etag);
+		}
+		href = null;
+	}
+
+	private void startPropstat() {
+		statCollection = false;
+		statModified = 0;
+		statContentLength = -1;
+		statEtag = null;
+		statOk = false;
+	}
+
+	private void endPropstat() {
+		if (!statOk) {
+			return;
+		}
+		collection |= statCollection;
+		if (statModified != 0) {
+			modified = statModified;
+		}
+		if (statContentLength != -1) {
+			contentLength = statContentLength;
+		}
+		if (statEtag != null) {
+			etag = statEtag;
+		}
+	}
+
+	private static boolean isOk(String status) {
+		// HTTP/1.1 200 OK
+		String[] parts = status.trim().split(" ");
+		return parts.length > 1 && parts[1].startsWith("2");
+	}
+
+	private long parseDate(String value) {
+		try {
+			return dateFormat.parse(value.trim()).getTime();
+		} catch (ParseException e) {
+			LOGGER.warn("Ignoring invalid last modified date: " + value);
+			return 0;
+		}
+	}
+
+	private static long parseLong(String value) {
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String decodeHref(String href) {
+		try {
+			return new URI(href).getPath();
+		} catch (URISyntaxException e) {
+			LOGGER.warn("Ignoring resource with invalid URI " + href);
+			return null;
+		}
+	}
+
+	private static XMLInputFactory createInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		// A listing never needs a DTD, and resolving one would let the server make us fetch URLs
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		return factory;
+	}
+}
@@ -19,31 +19,63 @@
 
 package com.alfresco.jmycloudclient.filestore;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Scanner;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.protocol.HTTP;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.alfresco.jmycloudclient.manager.AppProperties;
 import com.alfresco.jmycloudclient.model.Resource;
-import com.googlecode.sardine.DavResource;
-import com.googlecode.sardine.Sardine;
-import com.googlecode.sardine.SardineFactory;
+import com.googlecode.sardine.impl.SardineException;
 
 public class RemoteFileStore extends AbstractLoggableFileStore {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(RemoteFileStore.class);
 	
 	private static final String NAME = "Cloud";
+	private static final String PARTIAL_SUFFIX = ".partial";
+	private static final String PATCH_SUFFIX = ".patch";
 	private final String protocol;
 	private final String server;
-	private final Sardine sardine;
+	private final DavClient sardine;
 	private final String rootPath;
+	// Cleared the first time the server refuses a Depth: infinity listing
+	private volatile boolean infiniteDepthAllowed = true;
+	// Set by enableChunkedUpload, files larger than a chunk are uploaded in chunks
+	private File checkpointFolder = null;
+	private long chunkSize = 0;
+	// Cleared the first time the server doesn't apply a Content-Range PUT
+	private volatile boolean chunkedUploadAllowed = true;
 
 	public RemoteFileStore(String protocol, String server, String tenant, String site, String username, String password) {
 		super();
@@ -51,11 +83,28 @@ public class RemoteFileStore extends AbstractLoggableFileStore {
 		this.server = server;
 		this.rootPath = "/" + tenant + "/" + site;
 		
-		sardine = SardineFactory.begin(username, password);
+		sardine = new DavClient(username, password);
 		sardine.enableCompression();
+		if (AppProperties.getBoolean(AppProperties.PREEMPTIVE_AUTH, true)) {
+			sardine.enablePreemptiveAuthentication(server);
+		}
 		
 	}
 	
+	/**
+	 * Upload files larger than a chunk as a series of Content-Range PUTs to a hidden
+	 * partial file, which is moved into place once complete. The bytes the server 
+	 * has confirmed are kept in a checkpoint file, so an interrupted upload resumes
+	 * from the last complete chunk rather than from the start
+	 * 
+	 * @param checkpointFolder	The folder to keep the upload checkpoints in
+	 * @param chunkSize			The bytes sent in each PUT
+	 */
+	public void enableChunkedUpload(File checkpointFolder, long chunkSize) {
+		this.checkpointFolder = checkpointFolder;
+		this.chunkSize = chunkSize;
+	}
+	
 	@Override
 	protected Logger getLogger() {
 		return LOGGER;
@@ -69,7 +118,13 @@ public class RemoteFileStore extends AbstractLoggableFileStore {
 	@Override
 	protected boolean canConnect() {		
 		try {
-			sardine.list(getURI("/").toString());
+			sardine.propfind(getURI("/").toString(), DavClient.DEPTH_RESOURCE, new PropfindParser.Listener() {
+				
+				@Override
+				public void resource(String href, boolean collection, long modified, long contentLength, String etag) {
+					// Only the response status matters
+				}
+			});
 		} catch (IOException e) {
 			getLogger().error("Cannot connect to webdav [" + getURI("/").toString() + "]");
 			getLogger().error(e.toString());
@@ -79,60 +134,432 @@ public class RemoteFileStore extends AbstractLoggableFileStore {
 	}
 	
 	@Override
-	protected Map<String, Resource> listResources(String path, boolean deep) {
-		HashMap<String, Resource> resources = null;
+	protected SortedMap<String, Resource> listResources(String path, boolean deep) {
+		if(deep) {
+			return listTree(path);
+		}
+		return listChildren(path);
+	}
+	
+	/**
+	 * List a single collection with a Depth: 1 PROPFIND
+	 * 
+	 * @param path	The relative path of the collection
+	 * @return		The members of the collection, or NULL if the listing failed
+	 */
+	private SortedMap<String, Resource> listChildren(final String path) {
+		final TreeMap<String, Resource> resources = new TreeMap<String, Resource>();
 		URI pathUri = getURI(path);
-		String container = getFolderName(pathUri.getPath());
+		final String container = getFolderName(pathUri.getPath());
 		
-		List<DavResource> davResources = null;
 		try {
-			davResources = sardine.list(pathUri.toString());
+			sardine.propfind(pathUri.toString(), DavClient.DEPTH_MEMBERS, new PropfindParser.Listener() {
+				
+				@Override
+				public void resource(String href, boolean collection, long modified, long contentLength, String etag) {
+					String name = getFolderName(href);
+					if(!(collection && name.equals(container))) {
+						String combinedPath = path + "/" + name;
+						resources.put(combinedPath, new Resource(name, combinedPath, modified, collection, contentLength, etag));
+					}
+				}
+			});
 		} catch (IOException e) {
 			getLogger().error("Failed in webdav list: " + pathUri.toString());
 			getLogger().error(e.toString());
 			return null;
 		}
-		if(davResources != null) { 	
-			resources = new HashMap<String, Resource>();
-			for (DavResource davResource : davResources) {
-				if(!isResourceContainer(davResource, container)) {
-					String combinedPath = path + "/" + davResource.getName();
-					Resource res = new Resource(davResource.getName(), combinedPath, (davResource.getModified() != null) ? davResource.getModified().getTime() : 0, davResource.isDirectory(), davResource.getContentLength());
-					resources.put(combinedPath, res);
-					if(deep && davResource.isDirectory()){
-						Map<String, Resource> nested = listResources(combinedPath, deep);
-						if(nested != null) {
-							resources.putAll(nested);
+		
+		return resources;
+	}
+	
+	/**
+	 * List the whole tree below a collection. A single Depth: infinity PROPFIND is used
+	 * where the server allows it, otherwise the tree is listed a level at a time with the
+	 * collections of each level listed in parallel
+	 * 
+	 * @param path	The relative path of the collection
+	 * @return		Every resource below the collection, or NULL if the listing failed
+	 */
+	private SortedMap<String, Resource> listTree(String path) {
+		if(infiniteDepthAllowed) {
+			URI pathUri = getURI(path);
+			final String containerPath = trimTrailingSlash(path);
+			final TreeMap<String, Resource> resources = new TreeMap<String, Resource>();
+			try {
+				sardine.propfind(pathUri.toString(), DavClient.DEPTH_INFINITY, new PropfindParser.Listener() {
+					
+					@Override
+					public void resource(String href, boolean collection, long modified, long contentLength, String etag) {
+						Resource resource = getTreeResource(containerPath, href, collection, modified, contentLength, etag);
+						if(resource != null) {
+							resources.put(resource.getPath(), resource);
 						}
 					}
+				});
+				return resources;
+			} catch (SardineException e) {
+				if(!isDepthRefused(e.getStatusCode())) {
+					getLogger().error("Failed in webdav deep list: " + pathUri.toString());
+					getLogger().error(e.toString());
+					return null;
 				}
+				getLogger().info("Server refused Depth: infinity (" + e.getStatusCode() + "), listing a level at a time");
+				infiniteDepthAllowed = false;
+			} catch (IOException e) {
+				getLogger().error("Failed in webdav deep list: " + pathUri.toString());
+				getLogger().error(e.toString());
+				return null;
 			}
 		}
+		return listTreeByLevel(path);
+	}
+	
+	/**
+	 * Stream the tree below a collection from a single Depth: infinity PROPFIND where
+	 * the server allows it, visiting each resource as it is parsed. The server sends the
+	 * whole tree whatever is skipped, resources below a skipped folder and everything 
+	 * after the walk is stopped are read and dropped
+	 */
+	@Override
+	protected ResourceVisitor.Result walkResources(String path, boolean deep, final ResourceVisitor visitor) {
+		if(!deep || !infiniteDepthAllowed) {
+			return super.walkResources(path, deep, visitor);
+		}
 		
+		URI pathUri = getURI(path);
+		final String containerPath = trimTrailingSlash(path);
+		final List<String> skipped = new ArrayList<String>();
+		final ResourceVisitor.Result[] last = {ResourceVisitor.Result.CONTINUE};
+		try {
+			sardine.propfind(pathUri.toString(), DavClient.DEPTH_INFINITY, new PropfindParser.Listener() {
+				
+				@Override
+				public void resource(String href, boolean collection, long modified, long contentLength, String etag) {
+					Resource resource = getTreeResource(containerPath, href, collection, modified, contentLength, etag);
+					if(resource == null || last[0] == ResourceVisitor.Result.TERMINATE || isBelow(resource.getPath(), skipped)) {
+						return;
+					}
+					last[0] = visitor.visit(resource);
+					if(last[0] == ResourceVisitor.Result.SKIP_SUBTREE) {
+						skipped.add(resource.getPath() + "/");
+						last[0] = ResourceVisitor.Result.CONTINUE;
+					}
+				}
+			});
+			return last[0];
+		} catch (SardineException e) {
+			if(!isDepthRefused(e.getStatusCode())) {
+				getLogger().error("Failed in webdav deep list: " + pathUri.toString());
+				getLogger().error(e.toString());
+				return null;
+			}
+			getLogger().info("Server refused Depth: infinity (" + e.getStatusCode() + "), listing a level at a time");
+			infiniteDepthAllowed = false;
+		} catch (IOException e) {
+			getLogger().error("Failed in webdav deep list: " + pathUri.toString());
+			getLogger().error(e.toString());
+			return null;
+		}
+		return super.walkResources(path, deep, visitor);
+	}
+	
+	/**
+	 * Make a resource of an entry in a Depth: infinity listing, the path is taken from
+	 * the href as the entries come from every level of the tree
+	 * 
+	 * @return	The resource, or NULL for the listed collection itself or anything outside the site
+	 */
+	private Resource getTreeResource(String containerPath, String href, boolean collection, long modified, long contentLength, String etag) {
+		String hrefPath = trimTrailingSlash(href);
+		if(!hrefPath.startsWith(rootPath)) {
+			getLogger().warn("Ignoring resource outside of site: " + hrefPath);
+			return null;
+		}
+		String relativePath = hrefPath.substring(rootPath.length());
+		if(relativePath.equals(containerPath)) {
+			return null;
+		}
+		return new Resource(getFolderName(hrefPath), relativePath, modified, collection, contentLength, etag);
+	}
+	
+	private static boolean isBelow(String path, List<String> folders) {
+		for(String folder : folders) {
+			if(path.startsWith(folder)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private SortedMap<String, Resource> listTreeByLevel(String path) {
+		SortedMap<String, Resource> resources = new TreeMap<String, Resource>();
+		ExecutorService listers = Executors.newFixedThreadPool(AppProperties.getInt(AppProperties.LISTING_THREADS, 1));
+		try {
+			List<String> level = Collections.singletonList(path);
+			while(!level.isEmpty()) {
+				List<Future<SortedMap<String, Resource>>> listings = new ArrayList<Future<SortedMap<String, Resource>>>(level.size());
+				for(final String collection : level) {
+					listings.add(listers.submit(new Callable<SortedMap<String, Resource>>() {
+						
+						@Override
+						public SortedMap<String, Resource> call() {
+							return listChildren(collection);
+						}
+					}));
+				}
+				
+				List<String> nextLevel = new ArrayList<String>();
+				for(Future<SortedMap<String, Resource>> listing : listings) {
+					SortedMap<String, Resource> children = listing.get();
+					if(children == null) {
+						return null;
+					}
+					for(Resource child : children.values()) {
+						resources.put(child.getPath(), child);
+						if(child.isDirectory()) {
+							nextLevel.add(child.getPath());
+						}
+					}
+				}
+				level = nextLevel;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			getLogger().error("Failed in webdav deep list: " + path);
+			getLogger().error(e.getCause().toString());
+			return null;
+		} finally {
+			listers.shutdownNow();
+		}
 		return resources;
 	}
+	
+	/**
+	 * Servers refuse infinite depth with 403 (RFC 4918 propfind-finite-depth), some
+	 * older ones answer 400 or 501 instead
+	 */
+	private static boolean isDepthRefused(int statusCode) {
+		return statusCode == HttpStatus.SC_FORBIDDEN || statusCode == HttpStatus.SC_BAD_REQUEST 
+				|| statusCode == HttpStatus.SC_NOT_IMPLEMENTED;
+	}
+	
+	private static String trimTrailingSlash(String path) {
+		return (path.endsWith("/")) ? path.substring(0, path.length() - 1) : path;
+	}
 
 	@Override
-	protected InputStream getFileStreamFromResource(Resource resource) {
+	protected Resource statResource(final String path) {
+		final List<Resource> found = new ArrayList<Resource>();
+		try {
+			sardine.propfind(getURI(path).toString(), DavClient.DEPTH_RESOURCE, new PropfindParser.Listener() {
+				
+				@Override
+				public void resource(String href, boolean collection, long modified, long contentLength, String etag) {
+					found.add(new Resource(getFolderName(path), path, modified, collection, contentLength, etag));
+				}
+			});
+		} catch (SardineException e) {
+			if(e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+				getLogger().error("Failed webdav stat: " + path);
+				getLogger().error(e.toString());
+			}
+			return null;
+		} catch (IOException e) {
+			getLogger().error("Failed webdav stat: " + path);
+			getLogger().error(e.toString());
+			return null;
+		}
+		return found.isEmpty() ? null : found.get(0);
+	}
+	
+	@Override
+	protected Transfer openTransfer(Resource resource) {
 		try {
 			String url = getURI(resource.getPath()).toString();
-			return sardine.get(url);
+			return sardine.open(url);
 		} catch (Exception e) {
-			getLogger().error("Failed in webdav put: " + resource.getPath());
+			getLogger().error("Failed in webdav get: " + resource.getPath());
+			getLogger().error(e.toString());
+			return null;
+		}
+	}
+	
+	@Override
+	protected Transfer openTransfer(Resource resource, long offset, long length) {
+		try {
+			String url = getURI(resource.getPath()).toString();
+			return sardine.open(url, offset, length, getValidator(resource));
+		} catch (IOException e) {
+			getLogger().error("Failed in webdav get range: " + resource.getPath());
 			getLogger().error(e.toString());
 			return null;
 		}
 	}
 	
+	/**
+	 * Only chunked uploads can be resumed, from the bytes in the checkpoint if it was
+	 * written for this version of the local file and the partial file still holds them
+	 */
 	@Override
-	protected void putFileFromStream(Resource resource, InputStream stream) {
+	protected long getPartialLength(Resource resource) {
+		if(!isChunked(resource)) {
+			return 0;
+		}
+		String[] checkpoint = readCheckpoint(resource);
+		if(checkpoint == null) {
+			return 0;
+		}
+		long confirmed = Long.parseLong(checkpoint[1]);
+		if(!checkpoint[0].equals(getUploadValidator(resource))) {
+			discardPartial(resource);
+			return 0;
+		}
+		Resource partial = statResource(getPartialPath(resource.getPath()));
+		if(partial == null || partial.getSize() < confirmed) {
+			discardPartial(resource);
+			return 0;
+		}
+		return confirmed;
+	}
+	
+	@Override
+	protected boolean putFileFromStream(Resource resource, InputStream stream, long offset) {
+		if(isChunked(resource)) {
+			return putFileInChunks(resource, stream, offset);
+		}
+		if(offset != 0) {
+			getLogger().error("Webdav put can only start at the beginning of a file: " + resource.getPath());
+			return false;
+		}
 		try {
 			String url = getURI(resource.getPath()).toString();
-			sardine.put(url.toString(), stream);
+			if(resource.getSize() < 0) {
+				sardine.put(url, stream);
+			} else {
+				sardine.put(url, getEntity(stream, resource.getSize()), getPutHeaders(null));
+			}
 		} catch (Exception e) {
 			getLogger().error("Failed in webdav put: " + resource.getPath());
 			getLogger().error(e.toString());
-			return;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Send the file from the offset a chunk at a time, checking the partial file has 
+	 * grown after each chunk. A server that ignores Content-Range replaces the partial 
+	 * file with each chunk instead, and one that doesn't support it refuses the first
+	 * chunk. Either way chunked uploads are turned off and the file is sent in one PUT
+	 */
+	private boolean putFileInChunks(Resource resource, InputStream stream, long offset) {
+		String partialPath = getPartialPath(resource.getPath());
+		String partialUrl = getURI(partialPath).toString();
+		long size = resource.getSize();
+		long sent = offset;
+		try {
+			if(offset == 0) {
+				// Left over from an upload of another version, its tail would hide a server ignoring the ranges
+				if(statResource(partialPath) != null) {
+					sardine.delete(partialUrl);
+				}
+				writeCheckpoint(resource, 0);
+			}
+			
+			while(sent < size) {
+				long length = Math.min(chunkSize, size - sent);
+				String range = "bytes " + sent + "-" + (sent + length - 1) + "/" + size;
+				sardine.put(partialUrl, getEntity(stream, length), getPutHeaders(range));
+				
+				Resource partial = statResource(partialPath);
+				if(partial == null || partial.getSize() < sent + length) {
+					return putFileWithoutChunks(resource, stream, "Server did not apply Content-Range");
+				}
+				sent += length;
+				writeCheckpoint(resource, sent);
+			}
+			
+			sardine.move(partialUrl, getURI(resource.getPath()).toString());
+			getCheckpointFile(resource).delete();
+		} catch (SardineException e) {
+			if(sent == offset && isRangeRefused(e.getStatusCode())) {
+				return putFileWithoutChunks(resource, stream, "Server refused Content-Range (" + e.getStatusCode() + ")");
+			}
+			getLogger().error("Failed in webdav chunked put after " + sent + " of " + size + " bytes: " + resource.getPath());
+			getLogger().error(e.toString());
+			return false;
+		} catch (IOException e) {
+			getLogger().error("Failed in webdav chunked put after " + sent + " of " + size + " bytes: " + resource.getPath());
+			getLogger().error(e.toString());
+			return false;
+		}
+		return true;
+	}
+	
+	@Override
+	protected boolean putFileFromRanges(Resource resource, FileStore source, long offset, int parts) {
+		getLogger().error("Webdav put can't be split into parts: " + resource.getPath());
+		return false;
+	}
+	
+	/**
+	 * Write the changed ranges with Content-Range PUTs. This isn't part of WebDAV and 
+	 * a server that doesn't support it may replace the whole file with the range, so 
+	 * the ranges are written to a hidden copy of the file made with COPY. The copy is
+	 * moved over the file only once it has all the ranges and the right size
+	 */
+	@Override
+	protected boolean patchFileFromRanges(Resource resource, FileStore source, List<long[]> ranges) {
+		String patchPath = getHiddenPath(resource.getPath(), PATCH_SUFFIX);
+		String patchUrl = getURI(patchPath).toString();
+		try {
+			sardine.copy(getURI(resource.getPath()).toString(), patchUrl);
+			for(long[] range : ranges) {
+				putRange(resource, source, patchUrl, range[0], range[1]);
+			}
+			
+			Resource patched = statResource(patchPath);
+			if(patched == null || patched.getSize() != resource.getSize()) {
+				getLogger().warn("Server did not apply Content-Range to " + patchPath);
+				discardPatch(patchUrl);
+				return false;
+			}
+			sardine.move(patchUrl, getURI(resource.getPath()).toString());
+		} catch (IOException e) {
+			getLogger().error("Failed in webdav put ranges: " + resource.getPath());
+			getLogger().error(e.toString());
+			discardPatch(patchUrl);
+			return false;
+		}
+		return true;
+	}
+	
+	private void putRange(Resource resource, FileStore source, String url, long offset, long length) throws IOException {
+		Transfer transfer = source.getFile(resource, offset, length);
+		if(transfer == null) {
+			throw new IOException("Failed to read range at " + offset);
+		}
+		try {
+			String range = "bytes " + offset + "-" + (offset + length - 1) + "/" + resource.getSize();
+			sardine.put(url, getEntity(transfer.getStream(), length), getPutHeaders(range));
+			transfer.complete();
+		} finally {
+			transfer.close();
+		}
+	}
+	
+	private void discardPatch(String patchUrl) {
+		try {
+			sardine.delete(patchUrl);
+		} catch (SardineException e) {
+			if(e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+				getLogger().error(e.toString());
+			}
+		} catch (IOException e) {
+			getLogger().error(e.toString());
 		}
 	}
 
@@ -160,10 +587,218 @@ public class RemoteFileStore extends AbstractLoggableFileStore {
 		}
 	}
 	
+	/**
+	 * The body of a PUT of the next length bytes of a stream. A local file is sent 
+	 * straight from its channel, which can be read again if the server refuses the
+	 * Expect: 100-continue, any other stream is sent once as it is read. Either way 
+	 * the stream is left after the bytes sent
+	 */
+	private static HttpEntity getEntity(InputStream stream, long length) throws IOException {
+		if(stream instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) stream).getChannel();
+			long position = channel.position();
+			channel.position(position + length);
+			return new FileChannelEntity(channel, position, length);
+		}
+		return new InputStreamEntity(new ChunkInputStream(stream, length), length);
+	}
+	
+	/**
+	 * The server answers the headers before the body is sent, so a PUT it refuses
+	 * doesn't cost an upload of the whole file
+	 * 
+	 * @param contentRange	The Content-Range of a partial PUT, or NULL
+	 */
+	private static Map<String, String> getPutHeaders(String contentRange) {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(HTTP.EXPECT_DIRECTIVE, HTTP.EXPECT_CONTINUE);
+		if(contentRange != null) {
+			headers.put(HttpHeaders.CONTENT_RANGE, contentRange);
+		}
+		return headers;
+	}
+	
+	private boolean isChunked(Resource resource) {
+		return checkpointFolder != null && chunkedUploadAllowed && resource.getSize() > chunkSize;
+	}
+	
+	private static String getPartialPath(String path) {
+		return getHiddenPath(path, PARTIAL_SUFFIX);
+	}
+	
+	/**
+	 * Partial and patched files are hidden next to the file they become, so they are
+	 * ignored by sync and can be moved into place without crossing folders
+	 */
+	private static String getHiddenPath(String path, String suffix) {
+		int nameStart = path.lastIndexOf('/') + 1;
+		return path.substring(0, nameStart) + "." + path.substring(nameStart) + suffix;
+	}
+	
+	/**
+	 * Servers that don't support partial PUT must answer it with 400 (RFC 7231 4.3.4), 
+	 * others refuse the method or the header outright
+	 */
+	private static boolean isRangeRefused(int statusCode) {
+		return statusCode == HttpStatus.SC_BAD_REQUEST || statusCode == HttpStatus.SC_METHOD_NOT_ALLOWED
+				|| statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE || statusCode == HttpStatus.SC_NOT_IMPLEMENTED;
+	}
+	
+	/**
+	 * Turn chunked uploads off for a server that can't take them and send the file in
+	 * one PUT instead, straight away if the file can be read again from the start, 
+	 * otherwise on the next sync
+	 * 
+	 * @param resource	The file being uploaded
+	 * @param stream	The stream it was being read from
+	 * @param reason	Why chunks can't be used, for the log
+	 * @return			True if the file was uploaded
+	 */
+	private boolean putFileWithoutChunks(Resource resource, InputStream stream, String reason) {
+		chunkedUploadAllowed = false;
+		discardPartial(resource);
+		getLogger().warn(reason + ", chunked uploads turned off: " + resource.getPath());
+		if(!(stream instanceof FileInputStream)) {
+			return false;
+		}
+		try {
+			((FileInputStream) stream).getChannel().position(0);
+		} catch (IOException e) {
+			getLogger().error(e.toString());
+			return false;
+		}
+		return putFileFromStream(resource, stream, 0);
+	}
+	
+	private void discardPartial(Resource resource) {
+		getCheckpointFile(resource).delete();
+		try {
+			sardine.delete(getURI(getPartialPath(resource.getPath())).toString());
+		} catch (SardineException e) {
+			if(e.getStatusCode() != HttpStatus.SC_NOT_FOUND) {
+				getLogger().error(e.toString());
+			}
+		} catch (IOException e) {
+			getLogger().error(e.toString());
+		}
+	}
+	
+	/**
+	 * The local file being uploaded, a checkpoint of another version is never resumed
+	 */
+	private static String getUploadValidator(Resource resource) {
+		return resource.getSize() + "/" + resource.getModified();
+	}
+	
+	/**
+	 * URLs can be longer than a file name, so checkpoints are stored under a hash of the URL
+	 */
+	private File getCheckpointFile(Resource resource) {
+		return HashedFiles.getFile(checkpointFolder, getURI(resource.getPath()).toString());
+	}
+	
+	private void writeCheckpoint(Resource resource, long confirmed) throws IOException {
+		if(!checkpointFolder.isDirectory() && !checkpointFolder.mkdirs()) {
+			throw new IOException("Failed to create " + checkpointFolder.getPath());
+		}
+		OutputStreamWriter writer = new OutputStreamWriter(new FileOutputStream(getCheckpointFile(resource)), "UTF-8");
+		try {
+			writer.write(getUploadValidator(resource) + "\n" + confirmed + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * @return	The validator and the confirmed bytes, or NULL if there is no readable checkpoint
+	 */
+	private String[] readCheckpoint(Resource resource) {
+		File checkpoint = getCheckpointFile(resource);
+		if(!checkpoint.isFile()) {
+			return null;
+		}
+		Scanner scanner = null;
+		try {
+			scanner = new Scanner(checkpoint, "UTF-8");
+			String validator = scanner.hasNextLine() ? scanner.nextLine() : null;
+			String confirmed = scanner.hasNextLine() ? scanner.nextLine() : null;
+			if(validator == null || confirmed == null || !confirmed.matches("\\d+")) {
+				checkpoint.delete();
+				return null;
+			}
+			return new String[] {validator, confirmed};
+		} catch (IOException e) {
+			getLogger().error(e.toString());
+			return null;
+		} finally {
+			if(scanner != null) {
+				scanner.close();
+			}
+		}
+	}
+	
+	/**
+	 * Passes on one chunk of a stream being uploaded. The entity closes the stream it
+	 * sends, which mustn't close the stream before the later chunks are read
+	 */
+	private static class ChunkInputStream extends FilterInputStream {
+		
+		private long remaining;
+		
+		ChunkInputStream(InputStream stream, long length) {
+			super(stream);
+			this.remaining = length;
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if(b >= 0) {
+				remaining--;
+			}
+			return b;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int count = super.read(buffer, offset, (int) Math.min(length, remaining));
+			if(count > 0) {
+				remaining -= count;
+			}
+			return count;
+		}
+		
+		@Override
+		public void close() {
+			// The file stream is closed by whoever opened it
+		}
+	}
+	
+	/**
+	 * If-Range needs a strong validator, so a weak etag can't be used and the
+	 * modified date is sent instead
+	 */
+	private static String getValidator(Resource resource) {
+		String etag = resource.getEtag();
+		if(etag != null && !etag.startsWith("W/")) {
+			return etag;
+		}
+		return DateUtils.formatDate(new Date(resource.getModified()));
+	}
+	
+	/**
+	 * The server is taken as the authority, so it can carry a port
+	 */
 	private URI getURI(String path)  {
 		URI pathUri = null;
 		try {
-			pathUri = new URI(protocol, server, rootPath + path, null);
+			pathUri = new URI(protocol, server, rootPath + path, null, null);
 			return pathUri;
 		} catch (URISyntaxException e) {
 			getLogger().error(e.toString());
@@ -176,8 +811,4 @@ public class RemoteFileStore extends AbstractLoggableFileStore {
 		int baseStart = path.lastIndexOf("/") + 1;
 		return path.substring(baseStart);
 	}
-	
-	private static boolean isResourceContainer(DavResource davResource, String resourceName) {
-		return (davResource.isDirectory() && davResource.getName().equals(resourceName));
-	}
 }
\ No newline at end of file
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.filestore;
+
+import com.alfresco.jmycloudclient.model.Resource;
+
+/**
+ * Receives the resources of a listing one at a time as the store reads them, see 
+ * {@link FileStore#visitResources(String, boolean, ResourceVisitor)}. What is returned
+ * for each resource steers the rest of the listing. A folder is visited before
+ * anything below it, except by a server that sends the contents of a folder ahead
+ * of the folder itself, these can't be skipped.
+ */
+public interface ResourceVisitor {
+
+	enum Result {
+		// Carry on with the listing
+		CONTINUE,
+		// Leave out everything below this folder
+		SKIP_SUBTREE,
+		// Stop the listing
+		TERMINATE
+	}
+
+	/**
+	 * Take the next resource of the listing
+	 * 
+	 * @param resource	The resource
+	 * @return			How to carry on, skipping the subtree only means anything for
+	 * 					a folder
+	 */
+	Result visit(Resource resource);
+}
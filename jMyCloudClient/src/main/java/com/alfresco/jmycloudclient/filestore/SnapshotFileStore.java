@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.alfresco.jmycloudclient.model.Resource;
+
+/**
+ * Serves shallow listings of a store from a deep listing taken up front, so
+ * walking the tree costs no further requests. The snapshot is filled in as the
+ * deep listing is streamed, see {@link #add(Resource)}. Everything else is passed 
+ * on to the wrapped store. Folders missing from the snapshot, such as ones created
+ * after it was taken, list as empty
+ */
+public class SnapshotFileStore implements FileStore {
+
+	private final FileStore store;
+	// Children of every folder keyed by the folder's relative path
+	private final Map<String, SortedMap<String, Resource>> folders = new HashMap<String, SortedMap<String, Resource>>();
+	private int size = 0;
+
+	/**
+	 * Create an empty snapshot of a store
+	 * 
+	 * @param store		The store the snapshot is taken from
+	 */
+	public SnapshotFileStore(FileStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Add a resource of the deep listing. The snapshot is only read once it has been
+	 * filled in, so this is not safe to call while it is being used
+	 * 
+	 * @param resource	A resource below the root of the store
+	 */
+	public void add(Resource resource) {
+		String parent = getParentPath(resource.getPath());
+		SortedMap<String, Resource> children = folders.get(parent);
+		if (children == null) {
+			children = new TreeMap<String, Resource>();
+			folders.put(parent, children);
+		}
+		if (children.put(resource.getPath(), resource) == null) {
+			size++;
+		}
+	}
+
+	/**
+	 * @return	The number of resources in the snapshot
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getName() {
+		return store.getName();
+	}
+
+	@Override
+	public boolean isValidConnection() {
+		return store.isValidConnection();
+	}
+
+	@Override
+	public SortedMap<String, Resource> getResources(String path, boolean deep) {
+		if (deep) {
+			return store.getResources(path, deep);
+		}
+		SortedMap<String, Resource> children = folders.get(trimTrailingSlash(path));
+		return (children != null) ? children : new TreeMap<String, Resource>();
+	}
+
+	@Override
+	public boolean visitResources(String path, boolean deep, ResourceVisitor visitor) {
+		walk(trimTrailingSlash(path), deep, visitor);
+		return true;
+	}
+
+	private ResourceVisitor.Result walk(String path, boolean deep, ResourceVisitor visitor) {
+		SortedMap<String, Resource> children = folders.get(path);
+		if (children == null) {
+			return ResourceVisitor.Result.CONTINUE;
+		}
+		for (Resource child : children.values()) {
+			ResourceVisitor.Result result = visitor.visit(child);
+			if (result == ResourceVisitor.Result.TERMINATE) {
+				return result;
+			}
+			if (deep && child.isDirectory() && result == ResourceVisitor.Result.CONTINUE
+					&& walk(trimTrailingSlash(child.getPath()), deep, visitor) == ResourceVisitor.Result.TERMINATE) {
+				return ResourceVisitor.Result.TERMINATE;
+			}
+		}
+		return ResourceVisitor.Result.CONTINUE;
+	}
+
+	@Override
+	public Resource getResource(String path) {
+		return store.getResource(path);
+	}
+
+	@Override
+	public Transfer getFile(Resource resource) {
+		return store.getFile(resource);
+	}
+
+	@Override
+	public Transfer getFile(Resource resource, long offset) {
+		return store.getFile(resource, offset);
+	}
+
+	@Override
+	public Transfer getFile(Resource resource, long offset, long length) {
+		return store.getFile(resource, offset, length);
+	}
+
+	@Override
+	public long getResumeOffset(Resource resource) {
+		return store.getResumeOffset(resource);
+	}
+
+	@Override
+	public boolean putFile(Resource resource, InputStream stream) {
+		return store.putFile(resource, stream);
+	}
+
+	@Override
+	public boolean putFile(Resource resource, InputStream stream, long offset) {
+		return store.putFile(resource, stream, offset);
+	}
+
+	@Override
+	public boolean putFile(Resource resource, FileStore source, long offset, int parts) {
+		return store.putFile(resource, source, offset, parts);
+	}
+
+	@Override
+	public boolean putFileRanges(Resource resource, FileStore source, List<long[]> ranges) {
+		return store.putFileRanges(resource, source, ranges);
+	}
+
+	@Override
+	public void putDirectory(Resource resource) {
+		store.putDirectory(resource);
+	}
+
+	@Override
+	public void deleteResource(Resource resource) {
+		store.deleteResource(resource);
+	}
+
+	private static String getParentPath(String path) {
+		String trimmed = trimTrailingSlash(path);
+		int separator = trimmed.lastIndexOf('/');
+		return (separator <= 0) ? "" : trimmed.substring(0, separator);
+	}
+
+	private static String trimTrailingSlash(String path) {
+		return (path.endsWith("/")) ? path.substring(0, path.length() - 1) : path;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.client.methods.AbortableHttpRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read of a file from a store, owning the stream and the file handle or HTTP 
+ * connection behind it. Whoever gets a transfer closes it in a finally block. If it 
+ * was marked complete the stream is closed normally, so a remote connection goes 
+ * back to the pool to be reused. Otherwise the request is aborted, so a failed 
+ * download drops the connection rather than reading the rest of the body first.
+ */
+public class Transfer implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Transfer.class);
+
+	private final InputStream stream;
+	private final AbortableHttpRequest request;
+	private boolean complete = false;
+	private boolean closed = false;
+
+	/**
+	 * Create a transfer of a local stream
+	 * 
+	 * @param stream	The stream, closed with the transfer
+	 */
+	public Transfer(InputStream stream) {
+		this(stream, null);
+	}
+
+	/**
+	 * Create a transfer of a response body
+	 * 
+	 * @param stream	The response body, closed with the transfer
+	 * @param request	The request, aborted if the transfer is closed before it is complete
+	 */
+	public Transfer(InputStream stream, AbortableHttpRequest request) {
+		this.stream = stream;
+		this.request = request;
+	}
+
+	public InputStream getStream() {
+		return stream;
+	}
+
+	/**
+	 * Mark everything wanted from the stream as read, so the connection can be reused
+	 */
+	public void complete() {
+		complete = true;
+	}
+
+	/**
+	 * Release the stream, aborting the request if the transfer isn't complete. Closing
+	 * again does nothing
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (!complete && request != null) {
+			request.abort();
+		}
+		try {
+			stream.close();
+		} catch (IOException e) {
+			// Expected after an abort, the connection is already gone
+			if (complete || request == null) {
+				LOGGER.error(e.toString());
+			}
+		}
+	}
+}
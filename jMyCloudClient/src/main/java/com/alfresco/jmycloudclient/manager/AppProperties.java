@@ -30,9 +30,38 @@ public class AppProperties {
 	public static final String HTTP_PROTOCOL = "protocol";
 	public static final String SERVER_URL = "server";
 	public static final String SYNC_TIMER_PERIOD = "syncPeriodSeconds";
+	public static final String SYNC_PERIOD_MIN = "syncPeriodMinSeconds";
+	public static final String SYNC_PERIOD_MAX = "syncPeriodMaxSeconds";
+	public static final String SYNC_PERIOD_BACKOFF = "syncPeriodBackoff";
 	public static final String HELP_URL = "helpUrl";
 	public static final String SIGNUP_URL = "signupUrl";
 	public static final String FORGOT_PASSWORD_URL = "forgotPasswordUrl";
+	public static final String CONFIG_FOLDER = "configfolder";
+	public static final String STATE_FILE = "statefile";
+	public static final String EXCEPTIONS_FILE = "exceptionsfile";
+	public static final String SIGNATURES_FOLDER = "signaturesfolder";
+	public static final String UPLOAD_THREADS = "uploadThreads";
+	public static final String DOWNLOAD_THREADS = "downloadThreads";
+	public static final String TRANSFER_QUEUE_SIZE = "transferQueueSize";
+	public static final String SEGMENTED_DOWNLOAD_SIZE = "segmentedDownloadSize";
+	public static final String SEGMENTED_DOWNLOAD_PARTS = "segmentedDownloadParts";
+	public static final String LISTING_THREADS = "listingThreads";
+	public static final String LISTING_QUEUE_SIZE = "listingQueueSize";
+	public static final String REMOTE_DEEP_LISTING = "remoteDeepListing";
+	public static final String WATCH_LOCAL_CHANGES = "watchLocalChanges";
+	public static final String WATCH_DEBOUNCE_MILLIS = "watchDebounceMillis";
+	public static final String WATCH_MAX_DELAY_MILLIS = "watchMaxDelayMillis";
+	public static final String HTTP_IDLE_SECONDS = "httpIdleSeconds";
+	public static final String PREEMPTIVE_AUTH = "preemptiveAuth";
+	public static final String BUFFER_POOL_MAX_BYTES = "bufferPoolMaxBytes";
+	public static final String LOCAL_FSYNC = "localFsync";
+	public static final String MAX_FILE_SIZE = "maxFileSize";
+	public static final String CHUNKED_UPLOAD = "chunkedUpload";
+	public static final String CHUNKED_UPLOAD_SIZE = "chunkedUploadSize";
+	public static final String UPLOADS_FOLDER = "uploadsfolder";
+	public static final String DELTA_SYNC = "deltaSync";
+	public static final String DELTA_MIN_SIZE = "deltaMinSize";
+	public static final String DELTA_BLOCK_SIZE = "deltaBlockSize";
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(AppProperties.class);
 	
@@ -79,4 +108,64 @@ public class AppProperties {
 			return -1;
 		}
 	}
+	
+	/**
+	 * Get an Integer value for a property stored in the
+	 * config.properties file, falling back to a default if
+	 * the property is missing or not a number
+	 * 
+	 * @param key			The key for the property
+	 * @param defaultVal	The value to return if not found or issue
+	 * @return				The Integer value, or the default if not found or issue
+	 */
+	public static int getInt(String key, int defaultVal) {
+		if (!config.containsKey(key)) {
+			return defaultVal;
+		}
+		
+		try {
+			return Integer.parseInt(config.getString(key).trim());
+		} catch (NumberFormatException e) {
+			LOGGER.error("Property '" + key + "' is not a number, using default " + defaultVal);
+			return defaultVal;
+		}
+	}
+	
+	/**
+	 * Get a Long value for a property stored in the
+	 * config.properties file, falling back to a default if
+	 * the property is missing or not a number
+	 * 
+	 * @param key			The key for the property
+	 * @param defaultVal	The value to return if not found or issue
+	 * @return				The Long value, or the default if not found or issue
+	 */
+	public static long getLong(String key, long defaultVal) {
+		if (!config.containsKey(key)) {
+			return defaultVal;
+		}
+		
+		try {
+			return Long.parseLong(config.getString(key).trim());
+		} catch (NumberFormatException e) {
+			LOGGER.error("Property '" + key + "' is not a number, using default " + defaultVal);
+			return defaultVal;
+		}
+	}
+	
+	/**
+	 * Get a boolean value for a property stored in the
+	 * config.properties file
+	 * 
+	 * @param key			The key for the property
+	 * @param defaultVal	The value to return if not found
+	 * @return				The boolean value, or the default if not found
+	 */
+	public static boolean getBoolean(String key, boolean defaultVal) {
+		if (!config.containsKey(key)) {
+			return defaultVal;
+		}
+		
+		return Boolean.parseBoolean(config.getString(key).trim());
+	}
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers for transfer I/O, reused rather than allocated for every file. Buffers 
+ * come in power of two size classes, direct ones for channel I/O and heap ones for
+ * streams, which can only be read into and written from an array. The memory held
+ * by the pool, lent out or kept for reuse, never goes over the cap: a borrower waits
+ * for a buffer to be returned once the cap is reached, so every buffer borrowed
+ * must be returned in a finally block.
+ * 
+ * With debug logging on, the stack of every borrower is kept so buffers still lent
+ * out when a sync finishes can be logged as leaks.
+ */
+public class BufferPool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
+
+	private static final int MIN_CLASS_SHIFT = 12;
+	private static final int MAX_CLASS_SHIFT = 24;
+
+	private static final BufferPool SHARED = new BufferPool(AppProperties.getLong(AppProperties.BUFFER_POOL_MAX_BYTES, 64L * 1024 * 1024));
+
+	private final long maxBytes;
+
+	// All guarded by this
+	private final List<Deque<ByteBuffer>> freeDirect;
+	private final List<Deque<ByteBuffer>> freeHeap;
+	private final Map<ByteBuffer, Throwable> lent = new IdentityHashMap<ByteBuffer, Throwable>();
+	private long pooledBytes = 0;
+
+	/**
+	 * Create a pool
+	 * 
+	 * @param maxBytes	The most memory held by the pool, at least the largest size class
+	 */
+	public BufferPool(long maxBytes) {
+		this.maxBytes = Math.max(1 << MAX_CLASS_SHIFT, maxBytes);
+		int classes = MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1;
+		freeDirect = new ArrayList<Deque<ByteBuffer>>(classes);
+		freeHeap = new ArrayList<Deque<ByteBuffer>>(classes);
+		for (int i = 0; i < classes; i++) {
+			freeDirect.add(new ArrayDeque<ByteBuffer>());
+			freeHeap.add(new ArrayDeque<ByteBuffer>());
+		}
+	}
+
+	/**
+	 * @return	The pool shared by all transfers, capped by bufferPoolMaxBytes
+	 */
+	public static BufferPool getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Borrow a direct buffer for channel I/O
+	 * 
+	 * @param size	The bytes needed, the buffer's limit is set to this
+	 * @return		A buffer at least that big
+	 * @throws InterruptedIOException	If interrupted waiting for a buffer to be returned
+	 */
+	public ByteBuffer acquireDirect(int size) throws InterruptedIOException {
+		return acquire(size, true);
+	}
+
+	/**
+	 * Borrow a heap buffer, its array is used to read and write streams
+	 * 
+	 * @param size	The bytes needed, the buffer's limit is set to this
+	 * @return		A buffer at least that big
+	 * @throws InterruptedIOException	If interrupted waiting for a buffer to be returned
+	 */
+	public ByteBuffer acquireHeap(int size) throws InterruptedIOException {
+		return acquire(size, false);
+	}
+
+	/**
+	 * Return a borrowed buffer, it mustn't be used afterwards
+	 * 
+	 * @param buffer	The buffer, NULL is ignored so it can be returned from a finally block
+	 */
+	public synchronized void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		if (!lent.containsKey(buffer)) {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.error("Buffer returned twice or not from this pool", new Throwable());
+			}
+			return;
+		}
+		lent.remove(buffer);
+		int sizeClass = getSizeClass(buffer.capacity());
+		if (sizeClass < 0 || buffer.capacity() != (1 << (sizeClass + MIN_CLASS_SHIFT))) {
+			// Larger than the largest class, never pooled
+			return;
+		}
+		buffer.clear();
+		(buffer.isDirect() ? freeDirect : freeHeap).get(sizeClass).push(buffer);
+		notifyAll();
+	}
+
+	/**
+	 * Log the buffers still lent out, with the stacks of their borrowers when debug
+	 * logging is on. Called when no transfers are in progress, so any buffer found 
+	 * has leaked
+	 */
+	public synchronized void logLeaks() {
+		if (lent.isEmpty()) {
+			return;
+		}
+		LOGGER.warn(lent.size() + " transfer buffers not returned to the pool");
+		for (Throwable borrower : lent.values()) {
+			if (borrower != null) {
+				LOGGER.debug("Buffer borrowed at", borrower);
+			}
+		}
+	}
+
+	private synchronized ByteBuffer acquire(int size, boolean direct) throws InterruptedIOException {
+		int sizeClass = getSizeClass(size);
+		if (sizeClass < 0) {
+			// Too big to pool and outside the cap, only asked for with settings such as a huge delta block size
+			ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+			return lend(buffer, size);
+		}
+
+		int capacity = 1 << (sizeClass + MIN_CLASS_SHIFT);
+		List<Deque<ByteBuffer>> free = direct ? freeDirect : freeHeap;
+		while (true) {
+			ByteBuffer buffer = free.get(sizeClass).poll();
+			if (buffer != null) {
+				return lend(buffer, size);
+			}
+			if (pooledBytes + capacity > maxBytes) {
+				evictFreeBuffers(pooledBytes + capacity - maxBytes);
+			}
+			if (pooledBytes + capacity <= maxBytes) {
+				pooledBytes += capacity;
+				return lend(direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity), size);
+			}
+			LOGGER.debug("Buffer pool full, waiting for a buffer to be returned");
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for a transfer buffer");
+			}
+		}
+	}
+
+	private ByteBuffer lend(ByteBuffer buffer, int size) {
+		buffer.limit(size);
+		lent.put(buffer, LOGGER.isDebugEnabled() ? new Throwable() : null);
+		return buffer;
+	}
+
+	/**
+	 * Drop free buffers of other classes to make room, they are freed by the garbage collector
+	 */
+	private void evictFreeBuffers(long bytes) {
+		long evicted = 0;
+		for (int i = freeDirect.size() - 1; i >= 0 && evicted < bytes; i--) {
+			int capacity = 1 << (i + MIN_CLASS_SHIFT);
+			while (evicted < bytes && (freeHeap.get(i).poll() != null || freeDirect.get(i).poll() != null)) {
+				evicted += capacity;
+			}
+		}
+		pooledBytes -= evicted;
+	}
+
+	/**
+	 * @return	The index of the smallest class that holds the size, -1 if none does
+	 */
+	private static int getSizeClass(int size) {
+		int shift = MIN_CLASS_SHIFT;
+		while (shift <= MAX_CLASS_SHIFT && (1 << shift) < size) {
+			shift++;
+		}
+		return (shift <= MAX_CLASS_SHIFT) ? shift - MIN_CLASS_SHIFT : -1;
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The file name exceptions ignored during sync. Rules come from the global.ignore
+ * file shipped with the application and the user's exceptions file, one
+ * "regex,IGNORE" rule per line.
+ * 
+ * The rules are compiled once into plain name and extension lookups plus a single
+ * combined pattern for everything else. The user's file is only read again when
+ * its modified time changes, checked by {@link #refresh()} at the start of a sync.
+ */
+public class IgnoreRules {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IgnoreRules.class);
+
+	private static final String GLOBAL_RULES = "global.ignore";
+	private static final String RULE_SEPARATOR = ",";
+
+	// Regex characters, a rule without any of them is a plain file name
+	private static final Pattern REGEX_CHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+	// Rules of the form ^.*\.(iso|exe)$ or ^.*\.iso$ only look at the extension
+	private static final Pattern EXTENSION_RULE = Pattern.compile("\\^?\\.\\*\\\\\\.(?:\\(([A-Za-z0-9|]+)\\)|([A-Za-z0-9]+))\\$?");
+
+	private final List<String> globalRules;
+	private final File localRulesFile;
+
+	// Modified time of the user's file when it was last read, 0 if it didn't exist
+	private long localRulesModified = -1;
+	// Swapped as a whole on reload so readers always see a complete set of rules
+	private volatile CompiledRules rules;
+
+	/**
+	 * Load the global rules and the user's rules
+	 * 
+	 * @param localRulesFile	The user's exceptions file, it doesn't need to exist
+	 */
+	public IgnoreRules(File localRulesFile) {
+		this.localRulesFile = localRulesFile;
+		this.globalRules = readGlobalRules();
+		refresh();
+	}
+
+	/**
+	 * Recompile the rules if the user's exceptions file has changed since it was last read
+	 */
+	public synchronized void refresh() {
+		long modified = localRulesFile.lastModified();
+		if (modified == localRulesModified) {
+			return;
+		}
+
+		List<String> allRules = new ArrayList<String>(globalRules);
+		if (modified != 0) {
+			try {
+				List<String> localRules = readRules(new FileInputStream(localRulesFile));
+				LOGGER.debug("Local exceptions: " + localRules.toString());
+				allRules.addAll(localRules);
+			} catch (IOException e) {
+				LOGGER.error("Failed to read exceptions file " + localRulesFile.getPath() + ": " + e.toString());
+			}
+		}
+
+		rules = new CompiledRules(allRules);
+		localRulesModified = modified;
+	}
+
+	/**
+	 * Check if a file name matches any of the rules
+	 * 
+	 * @param name	The name of the file or folder
+	 * @return		True - the file should not be synced
+	 */
+	public boolean isIgnored(String name) {
+		return rules.matches(name);
+	}
+
+	private List<String> readGlobalRules() {
+		InputStream fileStream = getClass().getResourceAsStream(GLOBAL_RULES);
+		if (fileStream == null) {
+			LOGGER.error("Missing " + GLOBAL_RULES);
+			return new ArrayList<String>();
+		}
+		try {
+			return readRules(fileStream);
+		} catch (IOException e) {
+			LOGGER.error(e.toString());
+			return new ArrayList<String>();
+		}
+	}
+
+	private static List<String> readRules(InputStream fileStream) throws IOException {
+		List<String> rules = new ArrayList<String>();
+		Scanner scanner = new Scanner(fileStream, "UTF-8");
+		try {
+			while (scanner.hasNextLine()) {
+				String line = scanner.nextLine();
+				if (line.trim().length() == 0) {
+					continue;
+				}
+				int separator = line.lastIndexOf(RULE_SEPARATOR);
+				rules.add((separator < 0) ? line : line.substring(0, separator));
+			}
+			if (scanner.ioException() != null) {
+				throw scanner.ioException();
+			}
+		} finally {
+			scanner.close();
+		}
+		LOGGER.debug("exceptions loaded: " + rules.toString());
+		return rules;
+	}
+
+	/**
+	 * Rules sorted into the cheapest check that gives the same answer as matching the regex
+	 */
+	private static class CompiledRules {
+
+		private final Set<String> names = new HashSet<String>();
+		private final Set<String> extensions = new HashSet<String>();
+		private final Pattern combined;
+
+		CompiledRules(List<String> rules) {
+			Set<String> regexes = new LinkedHashSet<String>();
+			for (String rule : rules) {
+				Matcher extensionRule = EXTENSION_RULE.matcher(rule);
+				if (!REGEX_CHARACTERS.matcher(rule).find()) {
+					names.add(rule);
+				} else if (extensionRule.matches()) {
+					String group = (extensionRule.group(1) != null) ? extensionRule.group(1) : extensionRule.group(2);
+					for (String extension : group.split("\\|")) {
+						extensions.add(extension);
+					}
+				} else if (isValid(rule)) {
+					regexes.add(rule);
+				}
+			}
+
+			if (regexes.isEmpty()) {
+				combined = null;
+			} else {
+				StringBuilder alternation = new StringBuilder();
+				for (String regex : regexes) {
+					if (alternation.length() > 0) {
+						alternation.append('|');
+					}
+					alternation.append("(?:").append(regex).append(')');
+				}
+				combined = Pattern.compile(alternation.toString());
+			}
+			LOGGER.info("Compiled ignore rules: " + names.size() + " names, " + extensions.size()
+					+ " extensions, " + regexes.size() + " patterns");
+		}
+
+		boolean matches(String name) {
+			if (names.contains(name)) {
+				return true;
+			}
+			int dot = name.lastIndexOf('.');
+			if (dot >= 0 && extensions.contains(name.substring(dot + 1))) {
+				return true;
+			}
+			return combined != null && combined.matcher(name).matches();
+		}
+
+		private static boolean isValid(String regex) {
+			try {
+				Pattern.compile(regex);
+				return true;
+			} catch (PatternSyntaxException e) {
+				LOGGER.error("Ignoring invalid exception rule: " + regex);
+				return false;
+			}
+		}
+	}
+}
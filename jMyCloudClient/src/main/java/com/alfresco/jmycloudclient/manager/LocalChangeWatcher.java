@@ -0,0 +1,290 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the local sync folder and every folder below it for changes. Events
+ * are collected until the tree has been quiet for the debounce period and then
+ * handed over as the set of folders that need syncing, so saving a file only
+ * costs a sync of the folder it is in. A tree that is never quiet, such as one a
+ * file is being copied into, still has its changes handed over once the first
+ * of them has waited for the maximum delay. Changes to ignored names neither
+ * start a batch nor hold one back.
+ * 
+ * The watch service is backed by inotify on Linux, on other platforms the JDK
+ * may fall back to polling.
+ */
+public class LocalChangeWatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalChangeWatcher.class);
+
+	/**
+	 * Receives the folders changed since the last batch
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the watcher thread once the tree has been quiet for the debounce period,
+		 * or the first change of the batch has waited for the maximum delay
+		 * 
+		 * @param folders		The relative paths of the changed folders in parent first order,
+		 * 						TRUE if everything below the folder needs syncing as well
+		 * @param lastEvent	The time the last change in the batch was seen
+		 */
+		void foldersChanged(Map<String, Boolean> folders, long lastEvent);
+	}
+
+	private final Path root;
+	private final IgnoreRules ignoreRules;
+	private final Listener listener;
+	private final long debounceMillis;
+	private final long maxDelayMillis;
+
+	// Guarded by this
+	private WatchService watchService;
+	private Thread thread;
+
+	/**
+	 * Create a watcher for a local folder
+	 * 
+	 * @param rootPath			The local sync folder
+	 * @param ignoreRules		Folders with ignored names are not watched, changes to ignored names are dropped
+	 * @param listener			Receives the changed folders
+	 * @param debounceMillis	How long the tree must be quiet before a batch is handed over
+	 * @param maxDelayMillis	The longest a change waits before its batch is handed over
+	 */
+	public LocalChangeWatcher(String rootPath, IgnoreRules ignoreRules, Listener listener, long debounceMillis, long maxDelayMillis) {
+		this.root = FileSystems.getDefault().getPath(rootPath);
+		this.ignoreRules = ignoreRules;
+		this.listener = listener;
+		this.debounceMillis = debounceMillis;
+		this.maxDelayMillis = Math.max(debounceMillis, maxDelayMillis);
+	}
+
+	/**
+	 * Register the tree and start the watcher thread
+	 * 
+	 * @return	True - the watcher is running, False - the tree couldn't be watched
+	 */
+	public synchronized boolean start() {
+		if (thread != null) {
+			return true;
+		}
+		try {
+			watchService = root.getFileSystem().newWatchService();
+			registerTree(watchService, root);
+		} catch (IOException e) {
+			LOGGER.error("Failed to watch " + root + ": " + e.toString());
+			close();
+			return false;
+		}
+
+		final WatchService service = watchService;
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				watch(service);
+			}
+		}, "sync-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Stop the watcher thread, changes not yet handed over are dropped
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		close();
+	}
+
+	private void watch(WatchService service) {
+		// Folders changed in the current batch, sorted so parents come before their children
+		Map<String, Boolean> changed = new TreeMap<String, Boolean>();
+		long firstEvent = 0;
+		long lastEvent = 0;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key;
+				if (changed.isEmpty()) {
+					key = service.take();
+				} else {
+					long wait = Math.min(lastEvent + debounceMillis, firstEvent + maxDelayMillis) - System.currentTimeMillis();
+					key = (wait > 0) ? service.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+				if (key == null) {
+					// Quiet for the debounce period or held back for long enough, hand the batch over
+					listener.foldersChanged(collapse(changed), lastEvent);
+					changed = new TreeMap<String, Boolean>();
+					continue;
+				}
+
+				long now = System.currentTimeMillis();
+				boolean started = changed.isEmpty();
+				boolean counted = false;
+				Path folder = (Path) key.watchable();
+				for (WatchEvent<?> event : key.pollEvents()) {
+					counted |= handleEvent(service, folder, event, changed);
+				}
+				if (counted) {
+					lastEvent = now;
+					if (started) {
+						firstEvent = now;
+					}
+				}
+				if (!key.reset()) {
+					LOGGER.debug("No longer watching " + folder);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			// Also thrown when the watch service is closed by stop()
+			LOGGER.debug("Watcher stopped: " + e.toString());
+		}
+	}
+
+	/**
+	 * @return	False if the event was for an ignored name and dropped
+	 */
+	private boolean handleEvent(WatchService service, Path folder, WatchEvent<?> event, Map<String, Boolean> changed) {
+		if (event.kind() == OVERFLOW) {
+			LOGGER.warn("Missed local changes, syncing the whole folder");
+			changed.put("", Boolean.TRUE);
+			return true;
+		}
+
+		Path name = (Path) event.context();
+		if (ignoreRules.isIgnored(name.toString())) {
+			return false;
+		}
+		markChanged(changed, getRelativePath(folder), false);
+
+		Path child = folder.resolve(name);
+		if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+			// Anything created in the new folder before it was registered is picked up by syncing all of it
+			try {
+				registerTree(service, child);
+			} catch (IOException e) {
+				LOGGER.error("Failed to watch " + child + ": " + e.toString());
+			}
+			markChanged(changed, getRelativePath(child), true);
+		}
+		return true;
+	}
+
+	private static void markChanged(Map<String, Boolean> changed, String path, boolean recursive) {
+		Boolean current = changed.get(path);
+		if (current == null || (recursive && !current.booleanValue())) {
+			changed.put(path, Boolean.valueOf(recursive));
+		}
+	}
+
+	/**
+	 * Drop folders already covered by a recursive sync of a folder above them
+	 */
+	private static Map<String, Boolean> collapse(Map<String, Boolean> changed) {
+		String covering = null;
+		Iterator<Map.Entry<String, Boolean>> entries = changed.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, Boolean> entry = entries.next();
+			String path = entry.getKey();
+			if (covering != null && (covering.length() == 0 || path.startsWith(covering + "/"))) {
+				entries.remove();
+			} else if (entry.getValue().booleanValue()) {
+				covering = path;
+			}
+		}
+		return changed;
+	}
+
+	private void registerTree(final WatchService service, Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(root) && ignoreRules.isIgnored(dir.getFileName().toString())) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				LOGGER.warn("Not watching " + file + ": " + e.toString());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * The path relative to the sync folder in the form used by the file stores
+	 */
+	private String getRelativePath(Path path) {
+		StringBuilder relativePath = new StringBuilder();
+		for (Path element : root.relativize(path)) {
+			if (element.toString().length() > 0) {
+				relativePath.append('/').append(element.toString());
+			}
+		}
+		return relativePath.toString();
+	}
+
+	private void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOGGER.error(e.toString());
+			}
+			watchService = null;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides how long to wait before the next sync from what the last one found. A
+ * sync that found changes drops the interval to the minimum, each sync that found
+ * nothing multiplies it by the backoff up to the maximum. Busy sites are polled
+ * often and idle ones hardly at all.
+ */
+public class PollingPolicy {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PollingPolicy.class);
+
+	private final long minMillis;
+	private final long maxMillis;
+	private final int backoff;
+
+	// Only used by the scheduler thread
+	private long intervalMillis;
+
+	/**
+	 * Create a policy, the bounds are adjusted so that min <= initial <= max
+	 * 
+	 * @param initialMillis	The interval before the first change is seen
+	 * @param minMillis		The interval after a sync that found changes
+	 * @param maxMillis		The longest interval backed off to
+	 * @param backoff		The factor the interval grows by after a sync that found nothing
+	 */
+	public PollingPolicy(long initialMillis, long minMillis, long maxMillis, int backoff) {
+		this.minMillis = Math.max(1000, minMillis);
+		this.maxMillis = Math.max(this.minMillis, maxMillis);
+		this.backoff = Math.max(1, backoff);
+		this.intervalMillis = Math.min(this.maxMillis, Math.max(this.minMillis, initialMillis));
+	}
+
+	/**
+	 * Create a policy from the application properties
+	 * 
+	 * @return	The policy
+	 */
+	public static PollingPolicy fromProperties() {
+		int period = AppProperties.getInt(AppProperties.SYNC_TIMER_PERIOD, 300);
+		return new PollingPolicy(period * 1000L,
+				AppProperties.getInt(AppProperties.SYNC_PERIOD_MIN, period) * 1000L,
+				AppProperties.getInt(AppProperties.SYNC_PERIOD_MAX, period) * 1000L,
+				AppProperties.getInt(AppProperties.SYNC_PERIOD_BACKOFF, 1));
+	}
+
+	/**
+	 * Work out the interval before the next sync
+	 * 
+	 * @param changesFound	True if the sync just finished found something to copy
+	 * @return				The milliseconds to wait before the next sync
+	 */
+	public long nextInterval(boolean changesFound) {
+		long previous = intervalMillis;
+		if (changesFound) {
+			intervalMillis = minMillis;
+		} else if (intervalMillis < maxMillis) {
+			intervalMillis = Math.min(maxMillis, intervalMillis * backoff);
+		}
+		if (intervalMillis != previous) {
+			LOGGER.info("Sync period now " + (intervalMillis / 1000) + " seconds");
+		}
+		return intervalMillis;
+	}
+}
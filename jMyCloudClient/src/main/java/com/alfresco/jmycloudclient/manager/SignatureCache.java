@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alfresco.jmycloudclient.filestore.HashedFiles;
+import com.alfresco.jmycloudclient.model.BlockSignatures;
+
+/**
+ * The block signatures of the last synced version of large files, one file per
+ * synced file in a folder next to the sync journal. The signatures say what the
+ * remote copy looks like, so a later upload only has to send the blocks that
+ * changed locally since.
+ */
+public class SignatureCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SignatureCache.class);
+
+	private final File folder;
+	// Identifies the pair of stores, signatures of another pair are never returned
+	private final String pairId;
+
+	/**
+	 * Create a cache
+	 * 
+	 * @param folder	The folder to keep the signatures in, created when first needed
+	 * @param pairId	Identifies the pair of stores being synced
+	 */
+	public SignatureCache(File folder, String pairId) {
+		this.folder = folder;
+		this.pairId = pairId;
+	}
+
+	/**
+	 * Get the signatures of a file
+	 * 
+	 * @param path	The relative path of the file
+	 * @return		The signatures, or NULL if there are none
+	 */
+	public BlockSignatures get(String path) {
+		File file = getFile(path);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return BlockSignatures.read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			LOGGER.error("Failed to read signatures of " + path + ": " + e.toString());
+			remove(path);
+			return null;
+		}
+	}
+
+	/**
+	 * Store the signatures of a file, replacing any already stored
+	 * 
+	 * @param path			The relative path of the file
+	 * @param signatures	The signatures of the version both stores now hold
+	 */
+	public void put(String path, BlockSignatures signatures) {
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			LOGGER.error("Failed to create " + folder.getPath());
+			return;
+		}
+		File file = getFile(path);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				signatures.write(out);
+			} finally {
+				out.close();
+			}
+			if ((file.exists() && !file.delete()) || !tmpFile.renameTo(file)) {
+				throw new IOException("Failed to replace " + file.getPath());
+			}
+		} catch (IOException e) {
+			LOGGER.error("Failed to store signatures of " + path + ": " + e.toString());
+			tmpFile.delete();
+		}
+	}
+
+	/**
+	 * Forget the signatures of a file
+	 * 
+	 * @param path	The relative path of the file
+	 */
+	public void remove(String path) {
+		File file = getFile(path);
+		if (file.exists() && !file.delete()) {
+			LOGGER.error("Failed to delete " + file.getPath());
+		}
+	}
+
+	/**
+	 * Paths can be longer than a file name and use characters a file name can't,
+	 * so the signatures are stored under a hash of the pair and the path
+	 */
+	private File getFile(String path) {
+		return HashedFiles.getFile(folder, pairId + "\n" + path);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alfresco.jmycloudclient.model.Resource;
+import com.alfresco.jmycloudclient.model.SyncState;
+
+/**
+ * What to do with a file found on the local store, the remote store or both, 
+ * decided by a three-way comparison against the last agreed state in the journal.
+ * Only the side that changed since the last sync is copied, if both sides changed
+ * the newest copy wins. Modified times of the two stores are only compared with 
+ * each other when there is no agreed state to go on.
+ * 
+ * A state that only knows the size of a side, as recorded by the first journal 
+ * format for the side a transfer wrote, still shows that side unchanged while it
+ * has that size, and an unchanged file is adopted to complete its state. An upload
+ * gets a new modified time from the server, so the time couldn't tell it apart.
+ */
+public enum SyncAction {
+
+	// Copy the local file to the remote store
+	UPLOAD,
+	// Copy the remote file to the local store
+	DOWNLOAD,
+	// Both sides hold the same version, record them as agreed
+	ADOPT,
+	// Nothing to do
+	NONE;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SyncAction.class);
+
+	// Modified times this close are taken as the same, file systems and servers keep them to a second or two
+	static final long MODIFIED_TOLERANCE = 2000;
+
+	/**
+	 * Decide what to do with a file
+	 * 
+	 * @param local		The file on the local store, NULL if it doesn't exist
+	 * @param remote	The file on the remote store, NULL if it doesn't exist
+	 * @param state		The last agreed state of the file, NULL if there is none
+	 * @return			The action to take
+	 */
+	public static SyncAction decide(Resource local, Resource remote, SyncState state) {
+		if (remote == null) {
+			return UPLOAD;
+		}
+		if (local == null) {
+			return DOWNLOAD;
+		}
+
+		if (state == null) {
+			// Never recorded, only the same size and modified time show the two are the same
+			if (local.getSize() == remote.getSize() && Math.abs(local.getModified() - remote.getModified()) <= MODIFIED_TOLERANCE) {
+				LOGGER.debug("No sync record, both sides match: " + local.getPath());
+				return ADOPT;
+			}
+			SyncAction newest = getNewest(local, remote);
+			LOGGER.info("No sync record and the sides differ, keeping the newest (" + newest + "): " + local.getPath());
+			return newest;
+		}
+
+		boolean localChanged = state.isLocalChanged(local);
+		boolean remoteChanged = state.isRemoteChanged(remote);
+		if (localChanged && remoteChanged) {
+			SyncAction newest = getNewest(local, remote);
+			LOGGER.warn("File changed on both stores, keeping the newest (" + newest + "): " + local.getPath());
+			return newest;
+		}
+		if (localChanged) {
+			return UPLOAD;
+		}
+		if (remoteChanged) {
+			return DOWNLOAD;
+		}
+		if (!state.isComplete()) {
+			LOGGER.debug("Sync record only has the size, both sides match it: " + local.getPath());
+			return ADOPT;
+		}
+		return NONE;
+	}
+
+	private static SyncAction getNewest(Resource local, Resource remote) {
+		if (local.getModified() > remote.getModified()) {
+			return UPLOAD;
+		}
+		if (remote.getModified() > local.getModified()) {
+			return DOWNLOAD;
+		}
+		LOGGER.warn("Both sides have the same modified time but differ, leaving them: " + local.getPath());
+		return NONE;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rules of one .syncignore file. The file uses the gitignore syntax: one glob
+ * per line, '#' starts a comment, '!' re-includes a path excluded by an earlier
+ * rule and a trailing '/' only matches folders. A glob containing a '/' is
+ * matched against the path relative to the folder holding the file, any other
+ * glob is matched against the name at every depth below it.
+ */
+public class SyncIgnore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SyncIgnore.class);
+
+	/**
+	 * Name of the rules file looked for in every local folder
+	 */
+	public static final String FILE_NAME = ".syncignore";
+
+	private final List<Rule> rules;
+	// Modified time and size of the file the rules were read from
+	private final long modified;
+	private final long size;
+
+	/**
+	 * Read a .syncignore file
+	 * 
+	 * @param stream	The contents of the file, closed once read
+	 * @param modified	The modified time of the file
+	 * @param size		The size of the file
+	 * @throws IOException	If the file can't be read
+	 */
+	public SyncIgnore(InputStream stream, long modified, long size) throws IOException {
+		this.modified = modified;
+		this.size = size;
+		this.rules = new ArrayList<Rule>();
+
+		Scanner scanner = new Scanner(stream, "UTF-8");
+		try {
+			while (scanner.hasNextLine()) {
+				Rule rule = parseRule(scanner.nextLine());
+				if (rule != null) {
+					rules.add(rule);
+				}
+			}
+			if (scanner.ioException() != null) {
+				throw scanner.ioException();
+			}
+		} finally {
+			scanner.close();
+		}
+	}
+
+	/**
+	 * Check if the rules were read from the current version of the file
+	 * 
+	 * @param fileModified	The modified time of the file now
+	 * @param fileSize		The size of the file now
+	 * @return				True - the file hasn't changed since it was read
+	 */
+	public boolean isCurrent(long fileModified, long fileSize) {
+		return modified == fileModified && size == fileSize;
+	}
+
+	/**
+	 * Match a path against the rules, the last matching rule wins
+	 * 
+	 * @param relativePath	The path relative to the folder holding the file, without a leading '/'
+	 * @param directory		True if the path is a folder
+	 * @return				TRUE - excluded, FALSE - re-included, NULL - no rule matched
+	 */
+	public Boolean match(String relativePath, boolean directory) {
+		String name = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+		Boolean result = null;
+		for (Rule rule : rules) {
+			if (rule.directoryOnly && !directory) {
+				continue;
+			}
+			if (rule.pattern.matcher(rule.anchored ? relativePath : name).matches()) {
+				result = Boolean.valueOf(!rule.negated);
+			}
+		}
+		return result;
+	}
+
+	private static Rule parseRule(String line) {
+		String glob = trimTrailingSpaces(line);
+		if (glob.length() == 0 || glob.startsWith("#")) {
+			return null;
+		}
+
+		boolean negated = glob.startsWith("!");
+		if (negated) {
+			glob = glob.substring(1);
+		}
+		boolean directoryOnly = glob.endsWith("/");
+		if (directoryOnly) {
+			glob = glob.substring(0, glob.length() - 1);
+		}
+		boolean anchored = glob.indexOf('/') >= 0;
+		if (glob.startsWith("/")) {
+			glob = glob.substring(1);
+		}
+		if (glob.length() == 0) {
+			return null;
+		}
+
+		try {
+			return new Rule(Pattern.compile(toRegex(glob)), negated, directoryOnly, anchored);
+		} catch (PatternSyntaxException e) {
+			LOGGER.error("Ignoring invalid " + FILE_NAME + " rule: " + line);
+			return null;
+		}
+	}
+
+	private static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int i = 0;
+		while (i < glob.length()) {
+			char c = glob.charAt(i);
+			if (c == '*' && glob.startsWith("**", i)) {
+				boolean leading = (i == 0 || glob.charAt(i - 1) == '/');
+				if (leading && glob.startsWith("**/", i)) {
+					// Zero or more folders
+					regex.append("(?:.*/)?");
+					i += 3;
+				} else {
+					regex.append(".*");
+					i += 2;
+				}
+			} else if (c == '*') {
+				regex.append("[^/]*");
+				i++;
+			} else if (c == '?') {
+				regex.append("[^/]");
+				i++;
+			} else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+				int end = glob.indexOf(']', i + 1);
+				String range = glob.substring(i + 1, end);
+				if (range.startsWith("!")) {
+					range = "^" + range.substring(1);
+				}
+				regex.append('[').append(range.replace("\\", "\\\\")).append(']');
+				i = end + 1;
+			} else if (c == '\\' && i + 1 < glob.length()) {
+				regex.append(Pattern.quote(String.valueOf(glob.charAt(i + 1))));
+				i += 2;
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+				i++;
+			}
+		}
+		return regex.toString();
+	}
+
+	private static String trimTrailingSpaces(String line) {
+		int end = line.length();
+		while (end > 0 && Character.isWhitespace(line.charAt(end - 1))) {
+			end--;
+		}
+		return line.substring(0, end);
+	}
+
+	private static class Rule {
+
+		private final Pattern pattern;
+		private final boolean negated;
+		private final boolean directoryOnly;
+		private final boolean anchored;
+
+		Rule(Pattern pattern, boolean negated, boolean directoryOnly, boolean anchored) {
+			this.pattern = pattern;
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+			this.anchored = anchored;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alfresco.jmycloudclient.model.SyncState;
+
+/**
+ * On-disk journal of the last agreed state of every synced file. The journal is
+ * bound to one local folder and remote site pair, if the pair changes the journal
+ * is discarded and the next sync starts from scratch.
+ * 
+ * The file is a header line holding the format version and the pair followed by 
+ * one tab separated line per file:
+ * 
+ * localSize	localModified	localFileKey	remoteSize	remoteModified	remoteEtag	path
+ * 
+ * A journal of the first format, without the version or the file key, is read and
+ * written back in the current format.
+ * 
+ * The journal is saved while a run is going, at most every {@link #SAVE_INTERVAL},
+ * so a crash only loses the files synced since the last save.
+ */
+public class SyncJournal {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SyncJournal.class);
+
+	private static final String ENCODING = "UTF-8";
+	private static final String HEADER_PREFIX = "#";
+	private static final String SEPARATOR = "\t";
+	private static final String FORMAT_VERSION = "2";
+	private static final int FIELD_COUNT = 7;
+	private static final int LEGACY_FIELD_COUNT = 6;
+	// The first format recorded the side a transfer had just written with this modified time
+	private static final long LEGACY_UNKNOWN = -1;
+	// How often the journal is saved during a run
+	static final long SAVE_INTERVAL = 30000;
+
+	private final File journalFile;
+	private final String pairId;
+	private final Map<String, SyncState> states = new HashMap<String, SyncState>();
+	// Paths looked at during the current run, used to drop entries for files that have gone
+	private final Set<String> seen = new HashSet<String>();
+	private boolean dirty = false;
+	private long lastSaved = System.currentTimeMillis();
+
+	/**
+	 * Create a journal for a folder pair
+	 * 
+	 * @param journalFile	The file the journal is stored in
+	 * @param pairId		Identifies the local folder and remote site being synced
+	 */
+	public SyncJournal(File journalFile, String pairId) {
+		this.journalFile = journalFile;
+		this.pairId = pairId;
+	}
+
+	/**
+	 * Load the journal from disk. A missing, unreadable or foreign journal
+	 * leaves this journal empty
+	 */
+	public synchronized void load() {
+		states.clear();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), ENCODING));
+			String header = reader.readLine();
+			boolean legacy = header != null && header.equals(HEADER_PREFIX + pairId);
+			if (header == null || (!legacy && !header.equals(getHeader()))) {
+				LOGGER.info("Sync journal belongs to another folder pair, starting a new journal");
+				return;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				SyncState state = legacy ? parseLegacy(line) : parse(line);
+				if (state != null) {
+					states.put(state.getPath(), state);
+				}
+			}
+			LOGGER.info("Loaded " + states.size() + " entries from sync journal " + journalFile.getPath());
+			if (legacy) {
+				// Written back in the current format at the end of the next run
+				dirty = true;
+				return;
+			}
+		} catch (FileNotFoundException e) {
+			LOGGER.info("No sync journal found at " + journalFile.getPath() + ", starting a new journal");
+		} catch (IOException e) {
+			LOGGER.error("Failed to read sync journal " + journalFile.getPath(), e);
+			states.clear();
+		} finally {
+			close(reader);
+		}
+		dirty = false;
+	}
+
+	/**
+	 * Write the journal to disk if it has changed. The journal is written to a
+	 * temporary file first and moved over the old one, so a crash leaves either
+	 * the old or the new journal behind, never none or half of one
+	 */
+	public synchronized void save() {
+		lastSaved = System.currentTimeMillis();
+		if (!dirty) {
+			return;
+		}
+		File parent = journalFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			LOGGER.error("Cannot create folder for sync journal: " + parent.getPath());
+			return;
+		}
+		File tmpFile = new File(journalFile.getPath() + ".tmp");
+		BufferedWriter writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), ENCODING));
+			writer.write(getHeader());
+			writer.newLine();
+			for (SyncState state : states.values()) {
+				writer.write(format(state));
+				writer.newLine();
+			}
+			writer.close();
+			writer = null;
+
+			try {
+				Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			dirty = false;
+		} catch (IOException e) {
+			LOGGER.error("Failed to write sync journal " + journalFile.getPath(), e);
+		} finally {
+			close(writer);
+		}
+	}
+
+	/**
+	 * Save the journal if it hasn't been saved for {@link #SAVE_INTERVAL}, called 
+	 * as a run goes along so the files synced so far survive a crash
+	 */
+	public synchronized void saveIfDue() {
+		if (System.currentTimeMillis() - lastSaved >= SAVE_INTERVAL) {
+			save();
+		}
+	}
+
+	/**
+	 * Start a sync run, entries not looked at before {@link #endRun(boolean)} are dropped
+	 */
+	public synchronized void beginRun() {
+		seen.clear();
+	}
+
+	/**
+	 * Finish a sync run and save the journal
+	 * 
+	 * @param complete	True if every folder was listed, only then are entries that
+	 * 					were not seen during the run removed
+	 */
+	public synchronized void endRun(boolean complete) {
+		if (complete) {
+			Iterator<String> paths = states.keySet().iterator();
+			while (paths.hasNext()) {
+				if (!seen.contains(paths.next())) {
+					paths.remove();
+					dirty = true;
+				}
+			}
+		}
+		seen.clear();
+		save();
+	}
+
+	/**
+	 * Get the last agreed state for a path
+	 * 
+	 * @param path	The relative path of the file
+	 * @return		The state, or NULL if the file has never been synced
+	 */
+	public synchronized SyncState get(String path) {
+		seen.add(path);
+		return states.get(path);
+	}
+
+	/**
+	 * Record a new agreed state
+	 * 
+	 * @param state	The state to store
+	 */
+	public synchronized void put(SyncState state) {
+		seen.add(state.getPath());
+		states.put(state.getPath(), state);
+		dirty = true;
+	}
+
+	/**
+	 * Forget the state of a path, the next sync treats it as never synced
+	 * 
+	 * @param path	The relative path of the file
+	 */
+	public synchronized void remove(String path) {
+		seen.add(path);
+		if (states.remove(path) != null) {
+			dirty = true;
+		}
+	}
+
+	private String getHeader() {
+		return HEADER_PREFIX + FORMAT_VERSION + SEPARATOR + pairId;
+	}
+
+	private static SyncState parse(String line) {
+		String[] fields = line.split(SEPARATOR, FIELD_COUNT);
+		if (fields.length != FIELD_COUNT) {
+			LOGGER.warn("Ignoring corrupt sync journal entry: " + line);
+			return null;
+		}
+		try {
+			return new SyncState(fields[6], Long.parseLong(fields[0]), Long.parseLong(fields[1]), emptyToNull(fields[2]),
+					Long.parseLong(fields[3]), Long.parseLong(fields[4]), emptyToNull(fields[5]));
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Ignoring corrupt sync journal entry: " + line);
+			return null;
+		}
+	}
+
+	/**
+	 * Read an entry of the first format. An entry still waiting for the side its
+	 * transfer wrote to be listed keeps that side's modified time unknown, the next
+	 * sync accepts that side if it is still the recorded size
+	 */
+	private static SyncState parseLegacy(String line) {
+		String[] fields = line.split(SEPARATOR, LEGACY_FIELD_COUNT);
+		if (fields.length != LEGACY_FIELD_COUNT) {
+			LOGGER.warn("Ignoring corrupt sync journal entry: " + line);
+			return null;
+		}
+		try {
+			long localModified = Long.parseLong(fields[1]);
+			long remoteModified = Long.parseLong(fields[3]);
+			if (localModified == LEGACY_UNKNOWN) {
+				localModified = SyncState.UNKNOWN;
+			}
+			if (remoteModified == LEGACY_UNKNOWN) {
+				remoteModified = SyncState.UNKNOWN;
+			}
+			return new SyncState(fields[5], Long.parseLong(fields[0]), localModified, null,
+					Long.parseLong(fields[2]), remoteModified, emptyToNull(fields[4]));
+		} catch (NumberFormatException e) {
+			LOGGER.warn("Ignoring corrupt sync journal entry: " + line);
+			return null;
+		}
+	}
+
+	private static String emptyToNull(String field) {
+		return (field.length() == 0) ? null : field;
+	}
+
+	private static String format(SyncState state) {
+		StringBuilder line = new StringBuilder();
+		line.append(state.getLocalSize()).append(SEPARATOR);
+		line.append(state.getLocalModified()).append(SEPARATOR);
+		line.append((state.getLocalFileKey() == null) ? "" : state.getLocalFileKey()).append(SEPARATOR);
+		line.append(state.getRemoteSize()).append(SEPARATOR);
+		line.append(state.getRemoteModified()).append(SEPARATOR);
+		line.append((state.getRemoteEtag() == null) ? "" : state.getRemoteEtag()).append(SEPARATOR);
+		line.append(state.getPath());
+		return line.toString();
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable != null) {
+			try {
+				closeable.close();
+			} catch (IOException e) {
+				LOGGER.error(e.toString());
+			}
+		}
+	}
+}
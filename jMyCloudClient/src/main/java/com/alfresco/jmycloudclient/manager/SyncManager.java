@@ -19,23 +19,29 @@
 
 package com.alfresco.jmycloudclient.manager;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.SortedMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alfresco.jmycloudclient.filestore.FileStore;
+import com.alfresco.jmycloudclient.filestore.HttpTransport;
 import com.alfresco.jmycloudclient.filestore.LocalFileStore;
 import com.alfresco.jmycloudclient.filestore.RemoteFileStore;
+import com.alfresco.jmycloudclient.filestore.ResourceVisitor;
+import com.alfresco.jmycloudclient.filestore.SnapshotFileStore;
+import com.alfresco.jmycloudclient.filestore.Transfer;
+import com.alfresco.jmycloudclient.model.BlockSignatures;
 import com.alfresco.jmycloudclient.model.Resource;
+import com.alfresco.jmycloudclient.model.SyncState;
 import com.alfresco.jmycloudclient.view.SetupDialog;
 import com.alfresco.jmycloudclient.view.SystemTrayIcon;
 import com.alfresco.jmycloudclient.view.i18n.I18N;
@@ -45,26 +51,48 @@ import com.alfresco.jmycloudclient.view.i18n.I18N;
  * and remote server
  * 
  * @author dgildeh
- *
+ * 
  */
 public class SyncManager {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(SyncManager.class);
 	
-	private static final int ONE_GB = 1073741824;
+	private static final long ONE_GB = 1073741824L;
 	
 	// SingleTon Instance
 	private static SyncManager syncManager = null;
 
-	private final Map<String, String> globalExceptions;
+	// File name exceptions ignored during sync
+	private final IgnoreRules ignoreRules;
+	// Rules of the .syncignore files found so far keyed by folder path, only used by the sync thread
+	private final Map<String, SyncIgnore> syncIgnores = new HashMap<String, SyncIgnore>();
 	
 	// Remote Disk File Store
 	private FileStore remoteDisk = null;
 	// Local Disk File Store
 	private FileStore localDisk = null;
+	// Last agreed state of every synced file
+	private SyncJournal journal = null;
+	// Block signatures of large files for delta uploads, NULL if delta sync is off
+	private SignatureCache signatures = null;
+	// Runs the copies decided on by sync
+	private final TransferManager transfers;
+	// Starts a sync of the local folders that changed, NULL if not watching
+	private LocalChangeWatcher watcher = null;
+	// Runs the periodic and requested full syncs one at a time
+	private final SyncScheduler scheduler;
+	// Set when the settings have changed, the next scheduled run initialises the stores again
+	private volatile boolean reinitialise = false;
+	
+	// Held for the whole of a sync so the scheduler and the watcher never sync at the same time
+	private final Object syncLock = new Object();
+	// Start time of the last full sync, guarded by syncLock
+	private long lastFullSync = 0;
+	// Folders created and copies handed out by the current sync, guarded by syncLock
+	private int changes = 0;
 	
 	// Initialisation flag, if false class isn't properly initialised ready for sync
-	private boolean isInitialised = false;
+	private volatile boolean isInitialised = false;
 
 	/**
 	 * Private Constructor for SingleTon pattern
@@ -72,7 +100,18 @@ public class SyncManager {
 	private SyncManager() {
 
 		// Load file type exceptions to ignore during sync
-		this.globalExceptions = getGlobalExceptions();
+		this.ignoreRules = new IgnoreRules(getConfigFile(AppProperties.EXCEPTIONS_FILE));
+		int downloadThreads = AppProperties.getInt(AppProperties.DOWNLOAD_THREADS, 1);
+		int parts = AppProperties.getInt(AppProperties.SEGMENTED_DOWNLOAD_PARTS, 1);
+		this.transfers = new TransferManager(AppProperties.getInt(AppProperties.UPLOAD_THREADS, 1), downloadThreads, 
+				AppProperties.getInt(AppProperties.TRANSFER_QUEUE_SIZE, 1), (parts > 1) ? downloadThreads * parts : 0);
+		this.scheduler = new SyncScheduler(new SyncScheduler.Task() {
+			
+			@Override
+			public boolean run() {
+				return scheduledSync();
+			}
+		});
 		// Initialise SyncManager
 		init();
 	}
@@ -85,6 +124,7 @@ public class SyncManager {
 	private void init() {
 		
 		LOGGER.info("Initialising SyncManager...");
+		isInitialised = false;
 		
 		// Check that we have all necessary user preferences set - if not show Setup Dialog
 		if (! UserPreferences.checkRequiredPreferencesSet()) {						
@@ -101,11 +141,26 @@ public class SyncManager {
 					
 			
 			// Initialise file stores	
-			remoteDisk = new RemoteFileStore(AppProperties.getString(AppProperties.HTTP_PROTOCOL), 
+			RemoteFileStore remoteStore = new RemoteFileStore(AppProperties.getString(AppProperties.HTTP_PROTOCOL), 
 					AppProperties.getString(AppProperties.SERVER_URL), UserPreferences.getUserPref(UserPreferences.SYNC_NETWORK), 
 					UserPreferences.getUserPref(UserPreferences.SYNC_SITE), UserPreferences.getUserPref(UserPreferences.LOGIN_EMAIL), 
 					UserPreferences.getUserPref(UserPreferences.LOGIN_PASSWORD));						
-			localDisk = new LocalFileStore(UserPreferences.getUserPref(UserPreferences.SYNC_LOCAL_FOLDER_PATH));	
+			if (AppProperties.getBoolean(AppProperties.CHUNKED_UPLOAD, false)) {
+				remoteStore.enableChunkedUpload(getConfigFile(AppProperties.UPLOADS_FOLDER), 
+						AppProperties.getLong(AppProperties.CHUNKED_UPLOAD_SIZE, ONE_GB));
+			}
+			remoteDisk = remoteStore;
+			LocalFileStore localStore = new LocalFileStore(UserPreferences.getUserPref(UserPreferences.SYNC_LOCAL_FOLDER_PATH));
+			if (transfers.getPartExecutor() != null) {
+				localStore.enableSegmentedDownload(transfers.getPartExecutor());
+			}
+			localDisk = localStore;
+			String pairId = UserPreferences.getUserPref(UserPreferences.SYNC_NETWORK) + "/" 
+					+ UserPreferences.getUserPref(UserPreferences.SYNC_SITE) + " " + UserPreferences.getUserPref(UserPreferences.SYNC_LOCAL_FOLDER_PATH);
+			journal = new SyncJournal(getConfigFile(AppProperties.STATE_FILE), pairId);
+			journal.load();
+			signatures = AppProperties.getBoolean(AppProperties.DELTA_SYNC, false) 
+					? new SignatureCache(getConfigFile(AppProperties.SIGNATURES_FOLDER), pairId) : null;
 			
 			// Check we can connect to both
 			if (! remoteDisk.isValidConnection()) {
@@ -123,35 +178,32 @@ public class SyncManager {
 	}
 
 	/**
-	 * Start Syncing
+	 * Start Syncing. Once syncing has started, calling this again picks up changed 
+	 * settings on the next run rather than starting another schedule
 	 * 
 	 */
-	public static void startSync() {
+	public static synchronized void startSync() {
 		
 		// Create Instance of SyncManager
-		if (syncManager == null)
+		if (syncManager == null) {
 			syncManager = new SyncManager();
+		} else if (syncManager.scheduler.isStarted()) {
+			LOGGER.info("Settings changed, restarting sync");
+			syncManager.reinitialise = true;
+			syncManager.scheduler.requestRun();
+			return;
+		} else {
+			// Initialise and check connections are valid
+			syncManager.init();
+		}
 		
-		// Initialise and check connections are valid
-		syncManager.init();
 		if(syncManager.isInitialised && syncManager.remoteDisk.isValidConnection()){
 			
-			// Start Timer to syncronise from server periodically
-			Timer timer = new Timer();
-			int timerPeriod = (AppProperties.getInt(AppProperties.SYNC_TIMER_PERIOD) * 1000);
-			LOGGER.info("Setting Sync Timer to " + String.valueOf(timerPeriod) + " milliseconds");
-			timer.schedule(new TimerTask() {
-				
-				@Override
-				public void run() {
-					syncManager.sync();
-					
-				}
-			}, 0, timerPeriod);
+			// Start syncing from server periodically, more often while changes are being found
+			syncManager.scheduler.start(PollingPolicy.fromProperties());
 			
-			// TODO - Add JNotify code here so that it automatically starts a sync when file events occur
-			// HOWEVER need to check multi-threaded issues in case timer kicks off sync after real time 
-			// event is already syncing
+			// Sync local changes as they happen rather than waiting for the timer
+			syncManager.startWatcher();
 			
 		} else {
 			SetupDialog.setStatusMsg(I18N.getString("error.cannotConnectRemote.html"));
@@ -159,56 +211,611 @@ public class SyncManager {
 		}
 	}
 	
-	private void sync() {
-		if(remoteDisk == null || localDisk == null) {
-			return;
+	/**
+	 * Start a sync now rather than waiting for the next scheduled one. If a sync is
+	 * running another one is made straight after it
+	 */
+	public static synchronized void syncNow() {
+		if (syncManager != null && syncManager.scheduler.isStarted()) {
+			syncManager.scheduler.requestRun();
+		}
+	}
+	
+	/**
+	 * Stop syncing until resumed. Transfers already running are finished, no new ones
+	 * are started
+	 */
+	public static synchronized void pauseSync() {
+		if (syncManager != null) {
+			syncManager.scheduler.pause();
+		}
+	}
+	
+	/**
+	 * Start syncing again after a pause, catching up with a sync straight away
+	 */
+	public static synchronized void resumeSync() {
+		if (syncManager != null) {
+			syncManager.scheduler.resume();
+		}
+	}
+	
+	/**
+	 * Run by the scheduler, picks up changed settings before syncing
+	 * 
+	 * @return	True if the sync found changes
+	 */
+	private boolean scheduledSync() {
+		if (reinitialise) {
+			reinitialise = false;
+			stopWatcher();
+			synchronized (syncLock) {
+				init();
+			}
+			if (!isInitialised) {
+				return false;
+			}
+			startWatcher();
+		}
+		return sync();
+	}
+	
+	/**
+	 * Sync the whole tree in both directions in one pass
+	 * 
+	 * @return	True if anything was copied or created
+	 */
+	private boolean sync() {
+		if(!isInitialised || scheduler.isPaused()) {
+			return false;
 		}
 
-		sync("", remoteDisk, localDisk);
-		sync("", localDisk, remoteDisk);
-		SystemTrayIcon.setSyncStatus(false);
+		synchronized (syncLock) {
+			lastFullSync = System.currentTimeMillis();
+			changes = 0;
+			SystemTrayIcon.setSyncStatus(true);
+			ignoreRules.refresh();
+			journal.beginRun();
+			boolean complete = false;
+			try {
+				complete = reconcile(getRemoteTree(), "", true);
+				transfers.awaitCompletion();
+				BufferPool.getShared().logLeaks();
+				HttpTransport.getShared().logRequestCounts();
+			} catch (InterruptedException e) {
+				LOGGER.warn("Sync interrupted");
+				complete = false;
+				Thread.currentThread().interrupt();
+			}
+			journal.endRun(complete);
+			SystemTrayIcon.setSyncStatus(false);
+			LOGGER.info("Sync finished, " + changes + " changes");
+			return changes > 0;
+		}
 	}
 	
-	private void sync(String relativePath, FileStore source, FileStore destination) {
-		SystemTrayIcon.setSyncStatus(true);
-		LOGGER.info("Syncing....");
-		Map<String, Resource> srcRoot = source.getResources(relativePath, false);
-		Map<String, Resource> dstRoot = destination.getResources(relativePath, false);
-		
-		if(srcRoot == null || dstRoot == null) {
+	/**
+	 * Sync the local folders reported by the watcher. Only the given folders are
+	 * listed, so the journal keeps the entries of everything else
+	 * 
+	 * @param folders	The relative paths of the changed folders in parent first order,
+	 * 					TRUE if everything below the folder needs syncing as well
+	 * @param lastEvent	The time the last change was seen, changes seen before the last
+	 * 					full sync started have already been synced by it
+	 */
+	private void syncLocalChanges(Map<String, Boolean> folders, long lastEvent) {
+		synchronized (syncLock) {
+			if(lastEvent < lastFullSync) {
+				LOGGER.debug("Local changes already synced");
+				return;
+			}
+			if(scheduler.isPaused()) {
+				// Picked up by the sync made on resume
+				return;
+			}
+			
+			LOGGER.info("Syncing local changes in " + folders.keySet());
+			SystemTrayIcon.setSyncStatus(true);
+			ignoreRules.refresh();
+			journal.beginRun();
+			try {
+				for(Map.Entry<String, Boolean> folder : folders.entrySet()) {
+					if(!isInSyncIgnoredFolder(folder.getKey())) {
+						reconcile(remoteDisk, folder.getKey(), folder.getValue().booleanValue());
+					}
+				}
+				transfers.awaitCompletion();
+			} catch (InterruptedException e) {
+				LOGGER.warn("Sync interrupted");
+				Thread.currentThread().interrupt();
+			}
+			journal.endRun(false);
+			SystemTrayIcon.setSyncStatus(false);
+		}
+	}
+	
+	/**
+	 * Watch the local folder for changes if enabled and not already watching
+	 */
+	private void startWatcher() {
+		if(watcher != null || !AppProperties.getBoolean(AppProperties.WATCH_LOCAL_CHANGES, false)) {
 			return;
 		}
 		
-		for(Resource srcResource : srcRoot.values()) {
+		LocalChangeWatcher newWatcher = new LocalChangeWatcher(UserPreferences.getUserPref(UserPreferences.SYNC_LOCAL_FOLDER_PATH), 
+				ignoreRules, new LocalChangeWatcher.Listener() {
 			
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Checking resource on " + source.getName() + ": " + srcResource.getPath() + srcResource.getName());
+			@Override
+			public void foldersChanged(Map<String, Boolean> folders, long lastEvent) {
+				syncLocalChanges(folders, lastEvent);
 			}
+		}, AppProperties.getInt(AppProperties.WATCH_DEBOUNCE_MILLIS, 1000), AppProperties.getInt(AppProperties.WATCH_MAX_DELAY_MILLIS, 10000));
+		
+		if(newWatcher.start()) {
+			LOGGER.info("Watching local folder for changes");
+			watcher = newWatcher;
+		}
+	}
+	
+	private void stopWatcher() {
+		if(watcher != null) {
+			watcher.stop();
+			watcher = null;
+		}
+	}
+	
+	/**
+	 * List the whole remote site up front when deep listing is enabled, so walking
+	 * the tree doesn't cost a request per folder. The listing is streamed into the
+	 * snapshot, leaving out the folders sync would ignore anyway, but the snapshot
+	 * still holds the rest of the site in memory until the sync ends.
+	 * 
+	 * The comparison doesn't read the stream itself. It merges the whole listing of
+	 * a folder on each store, and a Depth: infinity response may send the children
+	 * of a folder anywhere in the tree, so no folder is known to be complete before
+	 * the stream ends
+	 * 
+	 * @return	A snapshot of the remote store, or the remote store itself if deep 
+	 * 			listing is disabled or fails
+	 */
+	private FileStore getRemoteTree() {
+		if(!AppProperties.getBoolean(AppProperties.REMOTE_DEEP_LISTING, false)) {
+			return remoteDisk;
+		}
+		
+		final SnapshotFileStore snapshot = new SnapshotFileStore(remoteDisk);
+		boolean listed = remoteDisk.visitResources("", true, new ResourceVisitor() {
 			
-			if(isIllegal(srcResource)){
-				LOGGER.debug("Ignoring: " + srcResource.getName());
-				continue;
+			@Override
+			public Result visit(Resource resource) {
+				// Ignored by name, so ignored on the local side too whatever it holds
+				if(resource.isDirectory() && isException(resource)) {
+					return Result.SKIP_SUBTREE;
+				}
+				snapshot.add(resource);
+				return Result.CONTINUE;
 			}
+		});
+		if(!listed) {
+			LOGGER.warn("Deep listing of " + remoteDisk.getName() + " failed, listing each folder instead");
+			return remoteDisk;
+		}
+		LOGGER.info("Listed " + snapshot.size() + " resources on " + remoteDisk.getName());
+		return snapshot;
+	}
+	
+	/**
+	 * Sync a folder in both directions. Each folder is listed once on each store by 
+	 * the listing threads, while this thread reconciles the two listings and hands 
+	 * copies to the transfer threads
+	 * 
+	 * @param remote		The remote store, or a snapshot of it
+	 * @param rootPath		The relative path of the folder, "" for the whole tree
+	 * @param recursive		True - sync the folders below it as well
+	 * @return				True if every folder could be listed
+	 * @throws InterruptedException	If the sync is interrupted
+	 */
+	private boolean reconcile(final FileStore remote, String rootPath, final boolean recursive) throws InterruptedException {
+		final boolean[] stopped = {false};
+		LOGGER.info("Syncing " + localDisk.getName() + " and " + remote.getName() + " [" + rootPath + "]....");
+		SyncPipeline pipeline = new SyncPipeline(localDisk, remote, 
+				AppProperties.getInt(AppProperties.LISTING_THREADS, 1), AppProperties.getInt(AppProperties.LISTING_QUEUE_SIZE, 1));
+		
+		return pipeline.run(rootPath, new SyncPipeline.DirectoryComparator() {
 			
-			Resource dstResource = dstRoot.get(srcResource.getPath());
-			if(srcResource.isDirectory()) {
-				if(dstResource == null) {
-					destination.putDirectory(srcResource);
+			@Override
+			public List<String> compare(String path, SortedMap<String, Resource> localResources, SortedMap<String, Resource> remoteResources) throws InterruptedException {
+				if(scheduler.isPaused()) {
+					// Hand out no more work, folders already queued are listed and dropped
+					stopped[0] = true;
+					return new ArrayList<String>();
+				}
+				List<String> subDirectories = reconcile(path, localResources, remoteResources, remote);
+				journal.saveIfDue();
+				return recursive ? subDirectories : new ArrayList<String>();
+			}
+		}) && !stopped[0];
+	}
+	
+	/**
+	 * Merge the two listings of a folder, both ordered by path, so each entry is 
+	 * paired with its counterpart in one pass without looking it up
+	 */
+	private List<String> reconcile(String path, SortedMap<String, Resource> localRoot, SortedMap<String, Resource> remoteRoot, FileStore remote) throws InterruptedException {
+		loadSyncIgnore(path, localRoot);
+		
+		List<String> subDirectories = new ArrayList<String>();
+		Iterator<Map.Entry<String, Resource>> locals = localRoot.entrySet().iterator();
+		Iterator<Map.Entry<String, Resource>> remotes = remoteRoot.entrySet().iterator();
+		Map.Entry<String, Resource> local = locals.hasNext() ? locals.next() : null;
+		Map.Entry<String, Resource> remoteEntry = remotes.hasNext() ? remotes.next() : null;
+		while(local != null || remoteEntry != null) {
+			int order = (local == null) ? 1 : (remoteEntry == null) ? -1 : local.getKey().compareTo(remoteEntry.getKey());
+			if(order < 0) {
+				reconcile(local.getValue(), null, remote, subDirectories);
+				local = locals.hasNext() ? locals.next() : null;
+			} else if(order > 0) {
+				reconcile(null, remoteEntry.getValue(), remote, subDirectories);
+				remoteEntry = remotes.hasNext() ? remotes.next() : null;
+			} else {
+				reconcile(local.getValue(), remoteEntry.getValue(), remote, subDirectories);
+				local = locals.hasNext() ? locals.next() : null;
+				remoteEntry = remotes.hasNext() ? remotes.next() : null;
+			}
+		}
+		return subDirectories;
+	}
+	
+	/**
+	 * Decide what to do with one entry of a folder, from its listing on each store
+	 * 
+	 * @param localResource		The entry on the local store, NULL if it isn't there
+	 * @param remoteResource	The entry on the remote store, NULL if it isn't there
+	 * @param remote			The remote store
+	 * @param subDirectories	Collects the sub folders to list next
+	 * @throws InterruptedException	If interrupted while waiting for the transfer queue
+	 */
+	private void reconcile(Resource localResource, Resource remoteResource, FileStore remote, List<String> subDirectories) throws InterruptedException {
+		Resource resource = (localResource != null) ? localResource : remoteResource;
+		if (LOGGER.isDebugEnabled()) {
+			LOGGER.debug("Checking resource: " + resource.getPath());
+		}
+		
+		// Ignored folders are never added to the sub folders, so nothing below them is listed
+		if(isIllegal(resource) || isSyncIgnored(resource)){
+			LOGGER.debug("Ignoring: " + resource.getPath());
+			return;
+		}
+		
+		if(localResource != null && remoteResource != null && localResource.isDirectory() != remoteResource.isDirectory()) {
+			LOGGER.warn("Folder on one store and file on the other, skipping: " + resource.getPath());
+			return;
+		}
+		if(resource.isDirectory()) {
+			// Created before the sub folder is listed or anything is copied into it
+			if(localResource == null) {
+				localDisk.putDirectory(remoteResource);
+				changes++;
+			} else if(remoteResource == null) {
+				remote.putDirectory(localResource);
+				changes++;
+			}
+			subDirectories.add(resource.getPath());
+			return;
+		}
+		
+		FileStore source = getCopySource(localResource, remoteResource, remote);
+		if(source == localDisk) {
+			submitCopy(localResource, remoteResource, localDisk, remote);
+			changes++;
+		} else if(source == remote) {
+			submitCopy(remoteResource, localResource, remote, localDisk);
+			changes++;
+		}
+	}
+	
+	/**
+	 * Read the .syncignore file of a local folder, if it has one. The rules are kept
+	 * until the file changes or disappears
+	 * 
+	 * @param path				The relative path of the folder
+	 * @param localResources	The folder's children on the local store
+	 */
+	private void loadSyncIgnore(String path, Map<String, Resource> localResources) {
+		Resource file = localResources.get(path + "/" + SyncIgnore.FILE_NAME);
+		if(file == null || file.isDirectory()) {
+			syncIgnores.remove(path);
+			return;
+		}
+		
+		SyncIgnore current = syncIgnores.get(path);
+		if(current != null && current.isCurrent(file.getModified(), file.getSize())) {
+			return;
+		}
+		
+		Transfer transfer = localDisk.getFile(file);
+		if(transfer == null) {
+			syncIgnores.remove(path);
+			return;
+		}
+		try {
+			syncIgnores.put(path, new SyncIgnore(transfer.getStream(), file.getModified(), file.getSize()));
+			LOGGER.info("Loaded " + file.getPath());
+		} catch (IOException e) {
+			LOGGER.error("Failed to read " + file.getPath() + ": " + e.toString());
+			syncIgnores.remove(path);
+		} finally {
+			transfer.close();
+		}
+	}
+	
+	/**
+	 * Check a resource against the .syncignore files of the folders above it. Rules in
+	 * deeper folders are checked last and so take precedence
+	 * 
+	 * @param resource	The resource to check, its parent folders have already been compared
+	 * @return			True - the resource is excluded from sync
+	 */
+	private boolean isSyncIgnored(Resource resource) {
+		return isSyncIgnored(resource.getPath(), resource.isDirectory());
+	}
+	
+	private boolean isSyncIgnored(String path, boolean directory) {
+		if(syncIgnores.isEmpty()) {
+			return false;
+		}
+		
+		boolean ignored = false;
+		int separator = path.indexOf('/');
+		while(separator >= 0) {
+			SyncIgnore rules = syncIgnores.get(path.substring(0, separator));
+			if(rules != null) {
+				Boolean match = rules.match(path.substring(separator + 1), directory);
+				if(match != null) {
+					ignored = match.booleanValue();
 				}
-				String subPath = srcResource.getPath();
-				sync(subPath, source, destination);
-			} else if(dstResource == null || dstResource.getModified() < srcResource.getModified()) {
-				InputStream stream = source.getFile(srcResource);
-				destination.putFile(srcResource, stream);
 			}
+			separator = path.indexOf('/', separator + 1);
+		}
+		return ignored;
+	}
+	
+	/**
+	 * Check if a folder or any folder above it is excluded by a .syncignore file
+	 * 
+	 * @param path	The relative path of the folder
+	 * @return		True - the folder is never synced
+	 */
+	private boolean isInSyncIgnoredFolder(String path) {
+		int separator = path.indexOf('/', 1);
+		while(separator > 0) {
+			if(isSyncIgnored(path.substring(0, separator), true)) {
+				return true;
+			}
+			separator = path.indexOf('/', separator + 1);
+		}
+		return path.length() > 0 && isSyncIgnored(path, true);
+	}
+	
+	/**
+	 * Decide which way, if any, a file is copied, see {@link SyncAction}
+	 * 
+	 * @param local			The file on the local store, NULL if it doesn't exist
+	 * @param remote		The file on the remote store, NULL if it doesn't exist
+	 * @param remoteStore	The remote store
+	 * @return				The store to copy the file from, NULL if it is in sync
+	 */
+	private FileStore getCopySource(Resource local, Resource remote, FileStore remoteStore) {
+		SyncAction action = SyncAction.decide(local, remote, (local != null && remote != null) ? journal.get(local.getPath()) : null);
+		if(action == SyncAction.UPLOAD) {
+			return localDisk;
+		}
+		if(action == SyncAction.DOWNLOAD) {
+			return remoteStore;
+		}
+		if(action == SyncAction.ADOPT) {
+			journal.put(SyncState.fromResources(local, remote));
+		}
+		return null;
+	}
+	
+	/**
+	 * Hand a file copy to the transfer threads, blocks while the transfer queue is full
+	 * 
+	 * @param srcResource	The file to copy
+	 * @param dstResource	The file it replaces, NULL if there isn't one
+	 * @param source		The store to copy from
+	 * @param destination	The store to copy to
+	 * @throws InterruptedException	If interrupted while waiting for the queue
+	 */
+	private void submitCopy(final Resource srcResource, final Resource dstResource, final FileStore source, final FileStore destination) throws InterruptedException {
+		transfers.submit(destination != localDisk, new Runnable() {
+			
+			@Override
+			public void run() {
+				copy(srcResource, dstResource, source, destination);
+			}
+		});
+	}
+	
+	private void copy(Resource srcResource, Resource dstResource, FileStore source, FileStore destination) {
+		if(source == localDisk && dstResource != null && isDeltaCandidate(srcResource) 
+				&& deltaUpload(srcResource, dstResource, destination)) {
+			recordTransfer(srcResource, source, destination);
+			return;
+		}
+		
+		Transfer transfer = null;
+		long offset = destination.getResumeOffset(srcResource);
+		if(destination == localDisk && isSegmentedCandidate(srcResource, offset)) {
+			int parts = AppProperties.getInt(AppProperties.SEGMENTED_DOWNLOAD_PARTS, 1);
+			if(destination.putFile(srcResource, source, offset, parts)) {
+				recordTransfer(srcResource, source, destination);
+				updateSignatures(srcResource);
+				return;
+			}
+			// Carry on with one stream from whatever the parts left behind
+			offset = destination.getResumeOffset(srcResource);
+		}
+		if(offset > 0) {
+			transfer = source.getFile(srcResource, offset);
+			if(transfer != null) {
+				LOGGER.info("Resuming " + srcResource.getPath() + " from " + offset + " of " + srcResource.getSize() + " bytes");
+			} else {
+				offset = 0;
+			}
+		}
+		if(transfer == null) {
+			transfer = source.getFile(srcResource);
+		}
+		if(transfer == null) {
+			return;
+		}
+		boolean copied = false;
+		try {
+			copied = destination.putFile(srcResource, transfer.getStream(), offset);
+			if(copied) {
+				transfer.complete();
+			}
+		} finally {
+			transfer.close();
+		}
+		if(copied) {
+			recordTransfer(srcResource, source, destination);
+			updateSignatures(srcResource);
+		}
+	}
+	
+	private boolean isSegmentedCandidate(Resource resource, long offset) {
+		return AppProperties.getInt(AppProperties.SEGMENTED_DOWNLOAD_PARTS, 1) > 1 
+				&& resource.getSize() - offset >= AppProperties.getInt(AppProperties.SEGMENTED_DOWNLOAD_SIZE, Integer.MAX_VALUE);
+	}
+	
+	private boolean isDeltaCandidate(Resource resource) {
+		return signatures != null && resource.getSize() >= AppProperties.getInt(AppProperties.DELTA_MIN_SIZE, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Upload only the blocks of a file that changed since it was last synced, using
+	 * Content-Range PUTs. Only used when the remote copy is still the version the 
+	 * stored signatures describe. The store patches a copy of the remote file and 
+	 * only replaces the file once the copy checks out, so a failed delta leaves the 
+	 * old version in place
+	 * 
+	 * @param srcResource	The local file
+	 * @param dstResource	The remote file it replaces
+	 * @param destination	The remote store
+	 * @return				True - the remote file now matches the local one, False - the 
+	 * 						whole file has to be sent
+	 */
+	private boolean deltaUpload(Resource srcResource, Resource dstResource, FileStore destination) {
+		String path = srcResource.getPath();
+		BlockSignatures previous = signatures.get(path);
+		SyncState state = journal.get(path);
+		if(previous == null || state == null || state.isRemoteChanged(dstResource) || previous.getLength() != dstResource.getSize()) {
+			return false;
+		}
+		
+		BlockSignatures current = computeSignatures(srcResource, previous.getBlockSize());
+		if(current == null || current.getLength() != srcResource.getSize()) {
+			return false;
+		}
+		List<long[]> ranges = previous.getChangedRanges(current);
+		if(ranges == null) {
+			return false;
+		}
+		long changed = 0;
+		for(long[] range : ranges) {
+			changed += range[1];
+		}
+		if(changed * 2 > current.getLength()) {
+			// Most of the file changed, one whole PUT is cheaper than many ranges
+			return false;
 		}
 		
-//		for(Resource dstResource : dstRoot.values()) {
-//			Resource srcResource = srcRoot.get(dstResource.getPath());
-//			if(srcResource == null) {
-//				dstCloud.deleteResource(dstResource);
-//			}
-//		}
+		if(!destination.putFileRanges(srcResource, localDisk, ranges)) {
+			LOGGER.warn("Delta upload of " + path + " failed, sending the whole file");
+			return false;
+		}
+		signatures.put(path, current);
+		LOGGER.info("Delta upload of " + path + ": sent " + changed + " of " + current.getLength() + " bytes in " + ranges.size() + " ranges");
+		return true;
+	}
+	
+	/**
+	 * Store the signatures of a file both stores now hold, so the next upload of it
+	 * can be a delta
+	 * 
+	 * @param resource	The file that was copied
+	 */
+	private void updateSignatures(Resource resource) {
+		if(signatures == null) {
+			return;
+		}
+		if(!isDeltaCandidate(resource)) {
+			signatures.remove(resource.getPath());
+			return;
+		}
+		BlockSignatures current = computeSignatures(resource, AppProperties.getInt(AppProperties.DELTA_BLOCK_SIZE, 262144));
+		if(current != null && current.getLength() == resource.getSize()) {
+			signatures.put(resource.getPath(), current);
+		} else {
+			signatures.remove(resource.getPath());
+		}
+	}
+	
+	private BlockSignatures computeSignatures(Resource resource, int blockSize) {
+		Transfer transfer = localDisk.getFile(resource);
+		if(transfer == null) {
+			return null;
+		}
+		ByteBuffer block = null;
+		try {
+			block = BufferPool.getShared().acquireHeap(blockSize);
+			return BlockSignatures.compute(transfer.getStream(), blockSize, block.array());
+		} catch (IOException e) {
+			LOGGER.error("Failed to read " + resource.getPath() + ": " + e.toString());
+			return null;
+		} finally {
+			BufferPool.getShared().release(block);
+			transfer.close();
+		}
+	}
+	
+	/**
+	 * Record a completed copy in the journal. The destination is read back from its
+	 * store, so the version recorded is the one the store reports, with the time and 
+	 * etag the server stamped on an upload, and the next sync doesn't take it for a
+	 * change and copy it back
+	 * 
+	 * @param srcResource	The file that was copied
+	 * @param source		The store it was copied from
+	 * @param destination	The store it was copied to
+	 */
+	private void recordTransfer(Resource srcResource, FileStore source, FileStore destination) {
+		Resource dstResource = destination.getResource(srcResource.getPath());
+		if(dstResource == null || dstResource.getSize() != srcResource.getSize()) {
+			// Left for the next sync to compare, as a file that was never synced
+			LOGGER.warn("Could not confirm copy of " + srcResource.getPath() + " to " + destination.getName());
+			journal.remove(srcResource.getPath());
+			return;
+		}
+		if(source == localDisk) {
+			journal.put(SyncState.fromResources(srcResource, dstResource));
+		} else {
+			journal.put(SyncState.fromResources(dstResource, srcResource));
+		}
+	}
+	
+	/**
+	 * Get a file in the application config folder under the user's home folder
+	 * 
+	 * @param fileNameKey	The application property holding the file name
+	 * @return				The file in the config folder
+	 */
+	private static File getConfigFile(String fileNameKey) {
+		File configFolder = new File(System.getProperty("user.home") + AppProperties.getString(AppProperties.CONFIG_FOLDER));
+		return new File(configFolder, AppProperties.getString(fileNameKey));
 	}
 	
 	/**
@@ -274,62 +881,16 @@ public class SyncManager {
 		return (String []) sites.toArray(new String[0]);
 	}
 	
-	private Map<String, String> getAllExceptions() {
-		Map<String, String> exceptions = getLocalExceptions();
-		if(exceptions == null) {
-			exceptions = new HashMap<String, String>();
-		} else {
-			LOGGER.debug("Local exceptions: " + exceptions.toString());
-		}
-		exceptions.putAll(globalExceptions);
-		return exceptions;
-	}
-	
-	private Map<String, String> getGlobalExceptions() {
-		try {
-			InputStream fileStream = getClass().getResourceAsStream("global.ignore");
-			return readExceptions(fileStream);
-		} catch (Exception e) {
-			LOGGER.error(e.toString());
-		}
-		return null;
-	}
-	
-	private Map<String, String> getLocalExceptions() {
-		try {
-			return readExceptions(new FileInputStream("configFolder" + "/" + "exceptionsFile"));
-		} catch (IOException e) {
-			return null;
-		}
-	}
-	
-	private Map<String, String> readExceptions(InputStream fileStream) throws IOException {
-		HashMap<String, String> exceptions = new HashMap<String, String>();	
-		Scanner scanner = new Scanner(fileStream);
-		while (scanner.hasNextLine()) {
-			String line = scanner.nextLine();
-			String[] parts = line.split(",");
-			exceptions.put(parts[0], parts[1]);
-		}
-		LOGGER.debug("exceptions loaded: " + exceptions.toString());
-		return exceptions;
-	}
-	
 	private boolean isIllegal(Resource resource) {
 		return (isTooLarge(resource) || isException(resource));
 	}
 	
 	private boolean isTooLarge(Resource resource) {
-		return (resource.getSize() > ONE_GB);
+		long maxFileSize = AppProperties.getLong(AppProperties.MAX_FILE_SIZE, ONE_GB);
+		return (maxFileSize > 0 && resource.getSize() > maxFileSize);
 	}
 	
 	private boolean isException(Resource resource) {
-		
-		for(String exception : getAllExceptions().keySet()) {
-			if(resource.getName().matches(exception)) {
-				return true;
-			}
-		}
-		return false;
+		return ignoreRules.isIgnored(resource.getName());
 	}
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alfresco.jmycloudclient.filestore.FileStore;
+import com.alfresco.jmycloudclient.model.Resource;
+
+/**
+ * Walks a folder tree in two stages. Listing threads list each folder once on 
+ * the local and once on the remote store and hand the results over a bounded
+ * queue to the thread running the pipeline, which reconciles them in both
+ * directions and queues the sub folders to be listed next.
+ * 
+ * Folders deeper in the tree are listed while the comparison of earlier folders
+ * is still handing out transfers. When the comparison falls behind the listing
+ * queue fills up and the listing threads wait, so memory use stays flat.
+ */
+public class SyncPipeline {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SyncPipeline.class);
+
+	/**
+	 * The comparison stage of the pipeline
+	 */
+	public interface DirectoryComparator {
+
+		/**
+		 * Compare the listings of one folder and act on the differences
+		 * 
+		 * @param path				The relative path of the folder
+		 * @param localResources	The folder's children on the local store
+		 * @param remoteResources	The folder's children on the remote store
+		 * @return					The relative paths of the sub folders to list next
+		 * @throws InterruptedException	If interrupted while handing out work
+		 */
+		List<String> compare(String path, SortedMap<String, Resource> localResources, SortedMap<String, Resource> remoteResources) throws InterruptedException;
+	}
+
+	private final FileStore local;
+	private final FileStore remote;
+	private final int listingThreads;
+	private final BlockingQueue<DirectoryListing> listings;
+
+	/**
+	 * Create a pipeline between two stores
+	 * 
+	 * @param local				The local store
+	 * @param remote			The remote store
+	 * @param listingThreads	The number of folders listed at the same time
+	 * @param queueSize			The number of listed folders that can wait to be compared
+	 */
+	public SyncPipeline(FileStore local, FileStore remote, int listingThreads, int queueSize) {
+		this.local = local;
+		this.remote = remote;
+		this.listingThreads = listingThreads;
+		this.listings = new ArrayBlockingQueue<DirectoryListing>(queueSize);
+	}
+
+	/**
+	 * Walk the tree below a folder, comparing every folder on the calling thread
+	 * 
+	 * @param rootPath		The relative path to start from
+	 * @param comparator	Compares each listed folder
+	 * @return				True if every folder could be listed on both stores
+	 * @throws InterruptedException	If interrupted while walking the tree
+	 */
+	public boolean run(String rootPath, DirectoryComparator comparator) throws InterruptedException {
+		ExecutorService listers = Executors.newFixedThreadPool(listingThreads, new ListingThreadFactory());
+		boolean complete = true;
+		try {
+			// Folders queued for listing but not yet compared, only touched by this thread
+			int outstanding = 1;
+			list(listers, rootPath);
+
+			while (outstanding > 0) {
+				DirectoryListing listing = listings.take();
+				outstanding--;
+
+				if (listing.localResources == null || listing.remoteResources == null) {
+					complete = false;
+					continue;
+				}
+
+				for (String subPath : comparator.compare(listing.path, listing.localResources, listing.remoteResources)) {
+					outstanding++;
+					list(listers, subPath);
+				}
+			}
+		} finally {
+			listers.shutdownNow();
+		}
+		return complete;
+	}
+
+	private void list(ExecutorService listers, final String path) {
+		listers.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				SortedMap<String, Resource> localResources = null;
+				SortedMap<String, Resource> remoteResources = null;
+				try {
+					localResources = local.getResources(path, false);
+					if (localResources != null) {
+						remoteResources = remote.getResources(path, false);
+					}
+				} catch (RuntimeException e) {
+					LOGGER.error("Failed to list " + path, e);
+				}
+
+				try {
+					listings.put(new DirectoryListing(path, localResources, remoteResources));
+				} catch (InterruptedException e) {
+					// The pipeline has been stopped, nobody is waiting for this listing
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+	}
+
+	/**
+	 * A folder listed on both stores, either map is NULL if the listing failed
+	 */
+	private static class DirectoryListing {
+
+		private final String path;
+		private final SortedMap<String, Resource> localResources;
+		private final SortedMap<String, Resource> remoteResources;
+
+		DirectoryListing(String path, SortedMap<String, Resource> localResources, SortedMap<String, Resource> remoteResources) {
+			this.path = path;
+			this.localResources = localResources;
+			this.remoteResources = remoteResources;
+		}
+	}
+
+	/**
+	 * Names listing threads and makes them daemons so they never keep the application alive
+	 */
+	private static class ListingThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "sync-listing-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
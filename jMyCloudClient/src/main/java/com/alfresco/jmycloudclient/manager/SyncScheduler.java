@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a sync periodically on a single thread, so there is never more than one
+ * run in flight. The time between runs is set by a {@link PollingPolicy} from
+ * whether the last run found changes. Requests made while a run is in progress
+ * are coalesced into a single run straight after it. While paused no runs are
+ * started, a run already in progress is expected to check {@link #isPaused()}
+ * and wind down.
+ */
+public class SyncScheduler {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SyncScheduler.class);
+
+	/**
+	 * The sync run by the scheduler
+	 */
+	public interface Task {
+
+		/**
+		 * Run one sync
+		 * 
+		 * @return	True if the sync found changes
+		 */
+		boolean run();
+	}
+
+	private final Task task;
+
+	// All guarded by this
+	private Thread thread = null;
+	private PollingPolicy policy;
+	private long nextRun;
+	private boolean requested = false;
+	private boolean running = false;
+	private boolean paused = false;
+
+	/**
+	 * Create a scheduler, nothing is run until it is started
+	 * 
+	 * @param task	The sync to run
+	 */
+	public SyncScheduler(Task task) {
+		this.task = task;
+	}
+
+	/**
+	 * Start running the task, the first run starts straight away. Does nothing if
+	 * already started
+	 * 
+	 * @param policy	Sets the time between the end of one run and the start of the next
+	 */
+	public synchronized void start(PollingPolicy policy) {
+		if (thread != null) {
+			return;
+		}
+		this.policy = policy;
+		this.nextRun = System.currentTimeMillis();
+
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				schedule();
+			}
+		}, "sync-scheduler");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return	True if the scheduler has been started
+	 */
+	public synchronized boolean isStarted() {
+		return thread != null;
+	}
+
+	/**
+	 * Run the task as soon as possible. If a run is in progress one more run is made
+	 * after it, however many requests are made in the meantime
+	 */
+	public synchronized void requestRun() {
+		requested = true;
+		notifyAll();
+	}
+
+	/**
+	 * Stop starting runs until resumed
+	 */
+	public synchronized void pause() {
+		if (!paused) {
+			LOGGER.info("Sync paused" + (running ? ", finishing transfers in progress" : ""));
+			paused = true;
+		}
+	}
+
+	/**
+	 * Start runs again, with one straight away to catch up on changes made while paused
+	 */
+	public synchronized void resume() {
+		if (paused) {
+			LOGGER.info("Sync resumed");
+			paused = false;
+			requestRun();
+		}
+	}
+
+	/**
+	 * @return	True if paused, a run in progress should stop handing out work
+	 */
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+
+	private void schedule() {
+		try {
+			while (true) {
+				waitForRun();
+				boolean changesFound = false;
+				try {
+					changesFound = task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("Sync failed", e);
+				} finally {
+					finishRun(changesFound);
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.info("Sync scheduler stopped");
+		}
+	}
+
+	private synchronized void waitForRun() throws InterruptedException {
+		while (true) {
+			long now = System.currentTimeMillis();
+			if (paused) {
+				wait();
+			} else if (!requested && now < nextRun) {
+				wait(nextRun - now);
+			} else {
+				break;
+			}
+		}
+		requested = false;
+		running = true;
+	}
+
+	private synchronized void finishRun(boolean changesFound) {
+		running = false;
+		nextRun = System.currentTimeMillis() + policy.nextInterval(changesFound);
+		if (paused) {
+			LOGGER.info("Sync paused, transfers in progress finished");
+		}
+		notifyAll();
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.manager;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs file transfers on a fixed number of upload and download threads. Each
+ * direction has a bounded queue, once it is full submitting a transfer blocks
+ * until a slot frees up so a sync can't queue more work than it can run. The parts
+ * of segmented downloads are fetched on a separate fixed pool shared by all the 
+ * download threads
+ */
+public class TransferManager {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TransferManager.class);
+
+	private final ExecutorService uploads;
+	private final ExecutorService downloads;
+	// NULL when downloads aren't segmented
+	private final ExecutorService parts;
+	// Running plus queued transfers allowed per direction
+	private final Semaphore uploadSlots;
+	private final Semaphore downloadSlots;
+
+	// Transfers submitted but not finished, guarded by this
+	private int pending = 0;
+
+	/**
+	 * Create a transfer manager
+	 * 
+	 * @param uploadThreads		The number of concurrent uploads
+	 * @param downloadThreads	The number of concurrent downloads
+	 * @param queueSize			The number of transfers that can wait in each direction
+	 * @param partThreads		The number of parts of segmented downloads fetched at once, 0 for none
+	 */
+	public TransferManager(int uploadThreads, int downloadThreads, int queueSize, int partThreads) {
+		LOGGER.info("Starting transfer threads: " + uploadThreads + " upload, " + downloadThreads
+				+ " download, " + partThreads + " part, queue size " + queueSize);
+		this.uploads = Executors.newFixedThreadPool(uploadThreads, new TransferThreadFactory("upload"));
+		this.downloads = Executors.newFixedThreadPool(downloadThreads, new TransferThreadFactory("download"));
+		this.parts = (partThreads > 0) ? Executors.newFixedThreadPool(partThreads, new TransferThreadFactory("part")) : null;
+		this.uploadSlots = new Semaphore(uploadThreads + queueSize);
+		this.downloadSlots = new Semaphore(downloadThreads + queueSize);
+	}
+
+	/**
+	 * Queue a transfer, blocking while the queue for its direction is full
+	 * 
+	 * @param upload		True - transfer to the remote store, False - transfer to the local store
+	 * @param transfer		The transfer to run
+	 * @throws InterruptedException	If interrupted while waiting for a free slot
+	 * @throws RejectedExecutionException	If the transfer threads can't take it, its
+	 * 										slot is given back first
+	 */
+	public void submit(boolean upload, final Runnable transfer) throws InterruptedException {
+		final Semaphore slots = upload ? uploadSlots : downloadSlots;
+		slots.acquire();
+		synchronized (this) {
+			pending++;
+		}
+
+		try {
+			(upload ? uploads : downloads).execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						transfer.run();
+					} catch (RuntimeException e) {
+						LOGGER.error("Transfer failed", e);
+					} finally {
+						slots.release();
+						finished();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// Never run, so awaitCompletion mustn't wait for it
+			slots.release();
+			finished();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return	The threads that fetch the parts of segmented downloads, NULL if there are none
+	 */
+	public ExecutorService getPartExecutor() {
+		return parts;
+	}
+
+	/**
+	 * Wait until every submitted transfer has finished
+	 * 
+	 * @throws InterruptedException	If interrupted while waiting
+	 */
+	public synchronized void awaitCompletion() throws InterruptedException {
+		while (pending > 0) {
+			wait();
+		}
+	}
+
+	private synchronized void finished() {
+		pending--;
+		if (pending == 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Names transfer threads and makes them daemons so they never keep the application alive
+	 */
+	private static class TransferThreadFactory implements ThreadFactory {
+
+		private final String direction;
+		private final AtomicInteger count = new AtomicInteger();
+
+		TransferThreadFactory(String direction) {
+			this.direction = direction;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "sync-" + direction + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
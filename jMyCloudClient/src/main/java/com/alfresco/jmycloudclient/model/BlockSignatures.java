@@ -0,0 +1,207 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Adler32;
+
+/**
+ * Per block checksums of a file, as used by rsync: a cheap Adler-32 checksum
+ * and an MD5 hash for each fixed size block. Comparing the signatures of two
+ * versions of a file gives the byte ranges that changed between them, the
+ * MD5 is only compared for blocks whose Adler-32 checksum matches.
+ */
+public class BlockSignatures {
+
+	private static final String STRONG_HASH = "MD5";
+	private static final int STRONG_HASH_LENGTH = 16;
+
+	private final int blockSize;
+	private final long length;
+	private final int[] weak;
+	private final byte[] strong;
+
+	private BlockSignatures(int blockSize, long length, int[] weak, byte[] strong) {
+		this.blockSize = blockSize;
+		this.length = length;
+		this.weak = weak;
+		this.strong = strong;
+	}
+
+	/**
+	 * Work out the signatures of a file
+	 * 
+	 * @param stream		The contents of the file, read to the end but not closed
+	 * @param blockSize		The size of each block, the last block may be shorter
+	 * @param block			Holds each block as it is read, at least blockSize long
+	 * @return				The signatures
+	 * @throws IOException	If the file can't be read
+	 */
+	public static BlockSignatures compute(InputStream stream, int blockSize, byte[] block) throws IOException {
+		MessageDigest digest = getDigest();
+		Adler32 checksum = new Adler32();
+		List<Integer> weak = new ArrayList<Integer>();
+		ByteArrayOutputStream strong = new ByteArrayOutputStream();
+		long length = 0;
+
+		int filled = readBlock(stream, block, blockSize);
+		while (filled > 0) {
+			checksum.reset();
+			checksum.update(block, 0, filled);
+			weak.add(Integer.valueOf((int) checksum.getValue()));
+			digest.update(block, 0, filled);
+			strong.write(digest.digest());
+			length += filled;
+			filled = (filled < blockSize) ? 0 : readBlock(stream, block, blockSize);
+		}
+
+		int[] weakArray = new int[weak.size()];
+		for (int i = 0; i < weakArray.length; i++) {
+			weakArray[i] = weak.get(i).intValue();
+		}
+		return new BlockSignatures(blockSize, length, weakArray, strong.toByteArray());
+	}
+
+	/**
+	 * Work out the ranges that have to be written over the older version of a file
+	 * to turn it into the newer one. Blocks past the end of the older version are
+	 * always included
+	 * 
+	 * @param newer		The signatures of the newer version
+	 * @return			The changed ranges as {offset, length} pairs in file order, or NULL
+	 * 					if the file can't be patched in place because it got shorter or
+	 * 					the block sizes differ
+	 */
+	public List<long[]> getChangedRanges(BlockSignatures newer) {
+		if (newer.blockSize != blockSize || newer.length < length) {
+			return null;
+		}
+
+		List<long[]> ranges = new ArrayList<long[]>();
+		long[] current = null;
+		for (int i = 0; i < newer.weak.length; i++) {
+			if (isSameBlock(newer, i)) {
+				current = null;
+				continue;
+			}
+			long offset = (long) i * blockSize;
+			long blockLength = Math.min(blockSize, newer.length - offset);
+			if (current != null) {
+				current[1] += blockLength;
+			} else {
+				current = new long[] {offset, blockLength};
+				ranges.add(current);
+			}
+		}
+		return ranges;
+	}
+
+	private boolean isSameBlock(BlockSignatures newer, int block) {
+		if (block >= weak.length || newer.weak[block] != weak[block]) {
+			return false;
+		}
+		// The last block of the older version may have grown without its checksum changing
+		long end = Math.min(length, (long) (block + 1) * blockSize);
+		long newerEnd = Math.min(newer.length, (long) (block + 1) * blockSize);
+		if (end != newerEnd) {
+			return false;
+		}
+		int from = block * STRONG_HASH_LENGTH;
+		return Arrays.equals(Arrays.copyOfRange(strong, from, from + STRONG_HASH_LENGTH),
+				Arrays.copyOfRange(newer.strong, from, from + STRONG_HASH_LENGTH));
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * Write the signatures in the form read by {@link #read(DataInputStream)}
+	 * 
+	 * @param out	The stream to write to
+	 * @throws IOException	If the stream can't be written
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(blockSize);
+		out.writeLong(length);
+		out.writeInt(weak.length);
+		for (int i = 0; i < weak.length; i++) {
+			out.writeInt(weak[i]);
+		}
+		out.write(strong);
+	}
+
+	/**
+	 * Read signatures written by {@link #write(DataOutputStream)}
+	 * 
+	 * @param in	The stream to read from
+	 * @return		The signatures
+	 * @throws IOException	If the stream can't be read or is truncated
+	 */
+	public static BlockSignatures read(DataInputStream in) throws IOException {
+		int blockSize = in.readInt();
+		long length = in.readLong();
+		int blocks = in.readInt();
+		if (blockSize <= 0 || blocks < 0 || blocks != (length + blockSize - 1) / blockSize) {
+			throw new IOException("Invalid block signatures");
+		}
+		int[] weak = new int[blocks];
+		for (int i = 0; i < blocks; i++) {
+			weak[i] = in.readInt();
+		}
+		byte[] strong = new byte[blocks * STRONG_HASH_LENGTH];
+		in.readFully(strong);
+		return new BlockSignatures(blockSize, length, weak, strong);
+	}
+
+	private static int readBlock(InputStream stream, byte[] block, int blockSize) throws IOException {
+		int filled = 0;
+		while (filled < blockSize) {
+			int read = stream.read(block, filled, blockSize - filled);
+			if (read < 0) {
+				break;
+			}
+			filled += read;
+		}
+		return filled;
+	}
+
+	private static MessageDigest getDigest() {
+		try {
+			return MessageDigest.getInstance(STRONG_HASH);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has to provide MD5
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -27,9 +27,21 @@ public class Resource {
 	private final long modified;
 	private final boolean directory;
 	private final long size;
+	private final String etag;
+	private final String fileKey;
 
 	public Resource(String name, String path, long modified, boolean directory, long size) {
+		this(name, path, modified, directory, size, null);
+	}
+	
+	public Resource(String name, String path, long modified, boolean directory, long size, String etag) {
+		this(name, path, modified, directory, size, etag, null);
+	}
+	
+	public Resource(String name, String path, long modified, boolean directory, long size, String etag, String fileKey) {
 		this.size = size;
+		this.etag = etag;
+		this.fileKey = fileKey;
 		if(directory && path.charAt(0) != '/'){
 			throw new IllegalArgumentException("Resource path must relative");
 		}
@@ -59,4 +71,24 @@ public class Resource {
 	public long getSize() {
 		return size;
 	}
+
+	/**
+	 * The entity tag reported by the store, only remote stores provide one
+	 * 
+	 * @return	The etag, or NULL if the store does not supply one
+	 */
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * The identity of the file on its file system, only local stores provide one. 
+	 * A file replaced by another, as editors do when saving, gets a new key even
+	 * if its size and modified time are the same
+	 * 
+	 * @return	The file key, or NULL if the store or file system does not supply one
+	 */
+	public String getFileKey() {
+		return fileKey;
+	}
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+package com.alfresco.jmycloudclient.model;
+
+/**
+ * The last state of a file that both the local and remote stores agreed on, the
+ * version identity of each side as its own store reported it. Each side is only
+ * ever compared with its own earlier state, never with the other side, so clocks 
+ * that differ between the machines can't make a file look changed
+ */
+public class SyncState {
+
+	// Modified time of a side whose version was never seen, only its size is known
+	public static final long UNKNOWN = -1;
+
+	private final String path;
+	private final long localSize;
+	private final long localModified;
+	private final String localFileKey;
+	private final long remoteSize;
+	private final long remoteModified;
+	private final String remoteEtag;
+
+	public SyncState(String path, long localSize, long localModified, String localFileKey, long remoteSize, long remoteModified, String remoteEtag) {
+		this.path = path;
+		this.localSize = localSize;
+		this.localModified = localModified;
+		this.localFileKey = localFileKey;
+		this.remoteSize = remoteSize;
+		this.remoteModified = remoteModified;
+		this.remoteEtag = remoteEtag;
+	}
+
+	/**
+	 * Create a new state where both sides are taken from their stores
+	 * 
+	 * @param local		The resource as seen on the local store
+	 * @param remote	The resource as seen on the remote store
+	 * @return			The agreed state
+	 */
+	public static SyncState fromResources(Resource local, Resource remote) {
+		return new SyncState(local.getPath(), local.getSize(), local.getModified(), local.getFileKey(),
+				remote.getSize(), remote.getModified(), remote.getEtag());
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getLocalSize() {
+		return localSize;
+	}
+
+	public long getLocalModified() {
+		return localModified;
+	}
+
+	public String getLocalFileKey() {
+		return localFileKey;
+	}
+
+	public long getRemoteSize() {
+		return remoteSize;
+	}
+
+	public long getRemoteModified() {
+		return remoteModified;
+	}
+
+	public String getRemoteEtag() {
+		return remoteEtag;
+	}
+
+	/**
+	 * Check if the version identity of both sides is known
+	 * 
+	 * @return	False if a side only has its size recorded
+	 */
+	public boolean isComplete() {
+		return localModified != UNKNOWN && remoteModified != UNKNOWN;
+	}
+
+	/**
+	 * Check if the local side has changed since this state was recorded. A file 
+	 * replaced by another is changed even if its size and modified time are the same.
+	 * If the modified time isn't known only the size is compared
+	 * 
+	 * @param local		The resource as currently seen on the local store
+	 * @return			True - changed, False - unchanged
+	 */
+	public boolean isLocalChanged(Resource local) {
+		if (localFileKey != null && local.getFileKey() != null && !localFileKey.equals(local.getFileKey())) {
+			return true;
+		}
+		return local.getSize() != localSize || (localModified != UNKNOWN && local.getModified() != localModified);
+	}
+
+	/**
+	 * Check if the remote side has changed since this state was recorded. The etag
+	 * is used when both sides have one, otherwise the size and modified time are
+	 * compared, or only the size if the modified time isn't known
+	 * 
+	 * @param remote	The resource as currently seen on the remote store
+	 * @return			True - changed, False - unchanged
+	 */
+	public boolean isRemoteChanged(Resource remote) {
+		if (remoteEtag != null && remote.getEtag() != null) {
+			return !remoteEtag.equals(remote.getEtag());
+		}
+		return remote.getSize() != remoteSize || (remoteModified != UNKNOWN && remote.getModified() != remoteModified);
+	}
+
+	@Override
+	public String toString() {
+		return path + " [local " + localSize + "@" + localModified + " " + localFileKey + ", remote " + remoteSize + "@" + remoteModified + " " + remoteEtag + "]";
+	}
+}
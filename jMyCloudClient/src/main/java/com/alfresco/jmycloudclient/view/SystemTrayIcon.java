@@ -39,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.alfresco.jmycloudclient.manager.AppProperties;
+import com.alfresco.jmycloudclient.manager.SyncManager;
 import com.alfresco.jmycloudclient.view.i18n.I18N;
 
 /**
@@ -96,6 +97,7 @@ public class SystemTrayIcon {
         		  if (LOGGER.isDebugEnabled()) {
         			  LOGGER.debug("Sync Menu Item Clicked");  
         		  }
+        		  SyncManager.syncNow();
         	  }
         });
         popupMenu.add(syncItem);
@@ -110,9 +112,11 @@ public class SystemTrayIcon {
         		  if (pauseSyncItem.getLabel().equals(I18N.getString("systemtray.menu.pauseSync"))) {
         			  pauseSyncItem.setLabel(I18N.getString("systemtray.menu.resumeSync"));
         			  syncItem.setEnabled(false);
+        			  SyncManager.pauseSync();
         		  } else {
         			  pauseSyncItem.setLabel(I18N.getString("systemtray.menu.pauseSync"));
         			  syncItem.setEnabled(true);
+        			  SyncManager.resumeSync();
         		  }
         	  }
         });
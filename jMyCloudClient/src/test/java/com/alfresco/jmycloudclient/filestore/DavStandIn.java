@@ -0,0 +1,390 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.filestore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-memory WebDAV server on a free local port with just enough of the protocol for
+ * a {@link RemoteFileStore}: GET with Range and If-Range, PUT with or without 
+ * Content-Range, PROPFIND at Depth 0, 1 and infinity, MKCOL, COPY, MOVE and DELETE.
+ * Paths are those of the requests, so a store for tenant t and site site keeps its
+ * files below /t/site.
+ * 
+ * The server can be set up to behave like the servers the store has to cope with,
+ * and records the requests it was sent.
+ */
+class DavStandIn {
+
+	/**
+	 * How a PUT with Content-Range is handled
+	 */
+	enum RangePuts {
+		// Write the range at its offset
+		APPLY,
+		// Replace the file with the body, as a server that doesn't know the header
+		IGNORE,
+		// Answer 400, as RFC 7231 asks of a server without partial PUT
+		REFUSE
+	}
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+	private final HttpServer server;
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+	private final List<String> requests = new ArrayList<String>();
+	private final Set<Integer> clientPorts = new HashSet<Integer>();
+	private int version = 0;
+	private int puts = 0;
+	private int challenges = 0;
+
+	private volatile boolean infiniteDepthRefused = false;
+	private volatile RangePuts rangePuts = RangePuts.APPLY;
+	private volatile int failedPut = 0;
+	private volatile String credentials = null;
+
+	DavStandIn() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					DavStandIn.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+		putFolder("/");
+	}
+
+	void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * @return	The host and port to give the store as its server
+	 */
+	String getAddress() {
+		return "127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	void refuseInfiniteDepth() {
+		infiniteDepthRefused = true;
+	}
+
+	void setRangePuts(RangePuts rangePuts) {
+		this.rangePuts = rangePuts;
+	}
+
+	/**
+	 * Answer the nth PUT, counted from 1, with 500
+	 */
+	void failPut(int n) {
+		failedPut = n;
+	}
+
+	/**
+	 * Challenge requests without these Basic credentials with 401
+	 */
+	void requireCredentials(String username, String password) {
+		credentials = "Basic " + new String(Base64.encodeBase64((username + ":" + password).getBytes()));
+	}
+
+	synchronized void putFolder(String path) {
+		entries.put(trim(path), new Entry(null));
+	}
+
+	synchronized void putFile(String path, byte[] data) {
+		entries.put(trim(path), new Entry(data));
+	}
+
+	synchronized byte[] getFile(String path) {
+		Entry entry = entries.get(trim(path));
+		return (entry == null) ? null : entry.data;
+	}
+
+	synchronized boolean exists(String path) {
+		return entries.containsKey(trim(path));
+	}
+
+	/**
+	 * @return	Each request as its method, path and the Depth, Range or Content-Range header it had
+	 */
+	synchronized List<String> getRequests() {
+		return new ArrayList<String>(requests);
+	}
+
+	synchronized void clearRequests() {
+		requests.clear();
+		clientPorts.clear();
+		challenges = 0;
+	}
+
+	synchronized int getChallenges() {
+		return challenges;
+	}
+
+	/**
+	 * @return	The number of connections the requests came in on
+	 */
+	synchronized int getConnections() {
+		return clientPorts.size();
+	}
+
+	private synchronized void handle(HttpExchange exchange) throws IOException {
+		byte[] body = read(exchange.getRequestBody());
+		String method = exchange.getRequestMethod();
+		String path = trim(exchange.getRequestURI().getPath());
+		String header = exchange.getRequestHeaders().getFirst("Depth");
+		for (String name : Arrays.asList("Range", "Content-Range")) {
+			if (header == null) {
+				header = exchange.getRequestHeaders().getFirst(name);
+			}
+		}
+		requests.add(method + " " + path + ((header == null) ? "" : " " + header));
+		clientPorts.add(exchange.getRemoteAddress().getPort());
+
+		if (credentials != null && !credentials.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+			challenges++;
+			exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"dav\"");
+			send(exchange, 401, null);
+		} else if (method.equals("GET")) {
+			get(exchange, path);
+		} else if (method.equals("PUT")) {
+			put(exchange, path, body);
+		} else if (method.equals("PROPFIND")) {
+			propfind(exchange, path);
+		} else if (method.equals("MKCOL")) {
+			entries.put(path, new Entry(null));
+			send(exchange, 201, null);
+		} else if (method.equals("COPY") || method.equals("MOVE")) {
+			copy(exchange, path, method.equals("MOVE"));
+		} else if (method.equals("DELETE")) {
+			delete(exchange, path);
+		} else {
+			send(exchange, 405, null);
+		}
+	}
+
+	private void get(HttpExchange exchange, String path) throws IOException {
+		Entry entry = entries.get(path);
+		if (entry == null || entry.data == null) {
+			send(exchange, 404, null);
+			return;
+		}
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		Matcher matcher = (range == null) ? null : RANGE.matcher(range);
+		if (matcher == null || !matcher.matches() || (ifRange != null && !ifRange.equals(entry.etag) && !ifRange.equals(formatDate(entry.modified)))) {
+			send(exchange, 200, entry.data);
+			return;
+		}
+		int start = Integer.parseInt(matcher.group(1));
+		int end = (matcher.group(2).length() == 0) ? entry.data.length - 1 : Math.min(Integer.parseInt(matcher.group(2)), entry.data.length - 1);
+		exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + entry.data.length);
+		send(exchange, 206, Arrays.copyOfRange(entry.data, start, end + 1));
+	}
+
+	private void put(HttpExchange exchange, String path, byte[] body) throws IOException {
+		puts++;
+		if (puts == failedPut) {
+			send(exchange, 500, null);
+			return;
+		}
+		String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+		if (contentRange == null || rangePuts == RangePuts.IGNORE) {
+			entries.put(path, new Entry(body));
+		} else if (rangePuts == RangePuts.REFUSE) {
+			send(exchange, 400, null);
+			return;
+		} else {
+			Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+			if (!matcher.matches()) {
+				send(exchange, 400, null);
+				return;
+			}
+			int start = Integer.parseInt(matcher.group(1));
+			Entry entry = entries.get(path);
+			byte[] data = (entry == null || entry.data == null) ? new byte[0] : entry.data;
+			data = Arrays.copyOf(data, Math.max(data.length, start + body.length));
+			System.arraycopy(body, 0, data, start, body.length);
+			entries.put(path, new Entry(data));
+		}
+		send(exchange, 201, null);
+	}
+
+	private void propfind(HttpExchange exchange, String path) throws IOException {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			send(exchange, 404, null);
+			return;
+		}
+		String depth = exchange.getRequestHeaders().getFirst("Depth");
+		if ("infinity".equals(depth) && infiniteDepthRefused) {
+			send(exchange, 403, null);
+			return;
+		}
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><D:multistatus xmlns:D=\"DAV:\">");
+		appendResponse(xml, path, entry);
+		if (entry.data == null && !"0".equals(depth)) {
+			String prefix = path.equals("/") ? "/" : path + "/";
+			for (Map.Entry<String, Entry> child : entries.entrySet()) {
+				String childPath = child.getKey();
+				if (childPath.startsWith(prefix) && childPath.length() > prefix.length() 
+						&& ("infinity".equals(depth) || childPath.indexOf('/', prefix.length()) < 0)) {
+					appendResponse(xml, childPath, child.getValue());
+				}
+			}
+		}
+		xml.append("</D:multistatus>");
+		exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+		send(exchange, 207, xml.toString().getBytes("UTF-8"));
+	}
+
+	private void copy(HttpExchange exchange, String path, boolean move) throws IOException {
+		Entry entry = entries.get(path);
+		if (entry == null) {
+			send(exchange, 404, null);
+			return;
+		}
+		String destination;
+		try {
+			destination = trim(new URI(exchange.getRequestHeaders().getFirst("Destination")).getPath());
+		} catch (URISyntaxException e) {
+			send(exchange, 400, null);
+			return;
+		}
+		if (move) {
+			entries.remove(path);
+			entries.put(destination, entry);
+		} else {
+			entries.put(destination, new Entry(entry.data));
+		}
+		send(exchange, 201, null);
+	}
+
+	private void delete(HttpExchange exchange, String path) throws IOException {
+		if (entries.remove(path) == null) {
+			send(exchange, 404, null);
+			return;
+		}
+		for (String child : new ArrayList<String>(entries.keySet())) {
+			if (child.startsWith(path + "/")) {
+				entries.remove(child);
+			}
+		}
+		send(exchange, 204, null);
+	}
+
+	private void appendResponse(StringBuilder xml, String path, Entry entry) {
+		String href = (entry.data == null && !path.endsWith("/")) ? path + "/" : path;
+		try {
+			href = new URI(null, null, href, null).toASCIIString();
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+		xml.append("<D:response><D:href>").append(href).append("</D:href><D:propstat><D:prop>");
+		xml.append("<D:getlastmodified>").append(formatDate(entry.modified)).append("</D:getlastmodified>");
+		if (entry.data == null) {
+			xml.append("<D:resourcetype><D:collection/></D:resourcetype>");
+		} else {
+			xml.append("<D:resourcetype/><D:getcontentlength>").append(entry.data.length).append("</D:getcontentlength>");
+			xml.append("<D:getetag>").append(entry.etag).append("</D:getetag>");
+		}
+		xml.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>");
+	}
+
+	private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+		if (body == null || body.length == 0) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream stream = exchange.getResponseBody();
+		stream.write(body);
+		stream.close();
+	}
+
+	private static byte[] read(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = stream.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static String formatDate(long modified) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(modified));
+	}
+
+	private static String trim(String path) {
+		return (path.length() > 1 && path.endsWith("/")) ? path.substring(0, path.length() - 1) : path;
+	}
+
+	/**
+	 * A file, or a folder if it has no data. Each change makes a new entry with a new etag
+	 */
+	private class Entry {
+
+		final byte[] data;
+		final long modified;
+		final String etag;
+
+		Entry(byte[] data) {
+			this.data = data;
+			this.modified = System.currentTimeMillis() / 1000 * 1000;
+			this.etag = "\"" + (++version) + "\"";
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.filestore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.alfresco.jmycloudclient.model.Resource;
+
+public class LocalFileStoreTest {
+
+	private static final int SIZE = 100000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LocalFileStore store;
+	private byte[] data;
+	private Resource resource;
+	private ExecutorService partThreads;
+
+	@Before
+	public void setUp() {
+		store = new LocalFileStore(folder.getRoot().getPath());
+		data = new byte[SIZE];
+		new Random(1).nextBytes(data);
+		resource = new Resource("f.bin", "/f.bin", 1000000, false, SIZE, "\"e1\"");
+		partThreads = Executors.newFixedThreadPool(4);
+		store.enableSegmentedDownload(partThreads);
+	}
+
+	@After
+	public void tearDown() {
+		partThreads.shutdownNow();
+	}
+
+	@Test
+	public void resumesFailedDownloadFromBytesReceived() throws IOException {
+		assertFalse(store.putFile(resource, new FailingStream(data, 30000), 0));
+
+		// Still allocated in full, so only the checkpoint can say how far it got
+		assertEquals(SIZE, getPartial().length());
+		assertEquals(30000, store.getResumeOffset(resource));
+
+		assertTrue(store.putFile(resource, new ByteArrayInputStream(data, 30000, SIZE - 30000), 30000));
+		assertArrayEquals(data, Files.readAllBytes(new File(folder.getRoot(), "f.bin").toPath()));
+		assertFalse(getPartial().exists());
+		assertEquals(0, store.getResumeOffset(resource));
+	}
+
+	@Test
+	public void resumesKilledDownloadFromCheckpoint() throws IOException {
+		// As left by a process killed after its first checkpoint
+		RandomAccessFile partial = new RandomAccessFile(getPartial(), "rw");
+		try {
+			partial.setLength(SIZE);
+			partial.write(data, 0, 40000);
+		} finally {
+			partial.close();
+		}
+		writeCheckpoint("\"e1\"\n40000\n");
+
+		assertEquals(40000, store.getResumeOffset(resource));
+		assertTrue(store.putFile(resource, new ByteArrayInputStream(data, 40000, SIZE - 40000), 40000));
+		assertArrayEquals(data, Files.readAllBytes(new File(folder.getRoot(), "f.bin").toPath()));
+	}
+
+	@Test
+	public void discardsPartialOfAnotherVersion() throws IOException {
+		assertFalse(store.putFile(resource, new FailingStream(data, 30000), 0));
+
+		Resource changed = new Resource("f.bin", "/f.bin", 2000000, false, SIZE, "\"e2\"");
+		assertEquals(0, store.getResumeOffset(changed));
+		assertFalse(getPartial().exists());
+	}
+
+	@Test
+	public void discardsPartialWithoutCheckpoint() throws IOException {
+		Files.write(getPartial().toPath(), new byte[20000]);
+		assertEquals(0, store.getResumeOffset(resource));
+		assertFalse(getPartial().exists());
+	}
+
+	@Test
+	public void discardsCheckpointBeyondPartial() throws IOException {
+		Files.write(getPartial().toPath(), new byte[20000]);
+		writeCheckpoint("\"e1\"\n50000\n");
+		assertEquals(0, store.getResumeOffset(resource));
+	}
+
+	@Test
+	public void fetchesFileInParts() throws IOException {
+		LocalFileStore source = createSource();
+		Resource listed = source.getResource("/f.bin");
+
+		assertTrue(store.putFile(listed, source, 0, 4));
+		assertArrayEquals(data, Files.readAllBytes(new File(folder.getRoot(), "f.bin").toPath()));
+		assertFalse(getPartial().exists());
+	}
+
+	@Test
+	public void discardsPartsOfChangedSource() throws IOException {
+		LocalFileStore source = createSource();
+		Resource listed = source.getResource("/f.bin");
+		Resource stale = new Resource("f.bin", "/f.bin", listed.getModified() - 10000, false, SIZE);
+
+		assertFalse(store.putFile(stale, source, 0, 4));
+		assertFalse(new File(folder.getRoot(), "f.bin").exists());
+		assertFalse(getPartial().exists());
+	}
+
+	private LocalFileStore createSource() throws IOException {
+		File sourceFolder = folder.newFolder("source");
+		Files.write(new File(sourceFolder, "f.bin").toPath(), data);
+		return new LocalFileStore(sourceFolder.getPath());
+	}
+
+	private File getPartial() {
+		return new File(folder.getRoot(), ".f.bin.partial");
+	}
+
+	private void writeCheckpoint(String contents) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(folder.getRoot(), ".f.bin.checkpoint")), "UTF-8");
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Gives the first bytes of the data, then fails like a dropped connection
+	 */
+	private static class FailingStream extends InputStream {
+
+		private final byte[] data;
+		private final int failAt;
+		private int position = 0;
+
+		FailingStream(byte[] data, int failAt) {
+			this.data = data;
+			this.failAt = failAt;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (position >= failAt) {
+				throw new IOException("Connection reset");
+			}
+			int count = Math.min(length, failAt - position);
+			System.arraycopy(data, position, buffer, offset, count);
+			position += count;
+			return count;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.filestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PropfindParserTest {
+
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+			+ "<D:multistatus xmlns:D=\"DAV:\">\n";
+	private static final String FOOTER = "</D:multistatus>\n";
+
+	@Test
+	public void parsesFilesAndCollections() throws IOException {
+		List<Entry> entries = parse(HEADER
+				+ response("/t/site/", "<D:resourcetype><D:collection/></D:resourcetype>", "200 OK")
+				+ response("/t/site/a.txt", "<D:resourcetype/>"
+						+ "<D:getcontentlength>12</D:getcontentlength>"
+						+ "<D:getlastmodified>Tue, 15 Nov 1994 12:45:26 GMT</D:getlastmodified>"
+						+ "<D:getetag>\"abc\"</D:getetag>", "200 OK")
+				+ FOOTER);
+
+		assertEquals(2, entries.size());
+		assertEquals("/t/site/", entries.get(0).href);
+		assertTrue(entries.get(0).collection);
+		assertEquals(0, entries.get(0).modified);
+		assertEquals(-1, entries.get(0).contentLength);
+
+		Entry file = entries.get(1);
+		assertEquals("/t/site/a.txt", file.href);
+		assertFalse(file.collection);
+		assertEquals(12, file.contentLength);
+		assertEquals(784903526000L, file.modified);
+		assertEquals("\"abc\"", file.etag);
+	}
+
+	@Test
+	public void decodesHrefs() throws IOException {
+		List<Entry> entries = parse(HEADER
+				+ response("http://host/t/site/My%20Documents/r%C3%A9sum%C3%A9.doc", "<D:getcontentlength>1</D:getcontentlength>", "200 OK")
+				+ FOOTER);
+
+		assertEquals(1, entries.size());
+		assertEquals("/t/site/My Documents/r\u00e9sum\u00e9.doc", entries.get(0).href);
+	}
+
+	@Test
+	public void ignoresPropertiesOfFailedPropstats() throws IOException {
+		List<Entry> entries = parse(HEADER
+				+ "<D:response><D:href>/t/site/b.txt</D:href>"
+				+ "<D:propstat><D:prop><D:getcontentlength>5</D:getcontentlength></D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat>"
+				+ "<D:propstat><D:prop><D:getetag>\"bad\"</D:getetag><D:resourcetype><D:collection/></D:resourcetype></D:prop>"
+				+ "<D:status>HTTP/1.1 404 Not Found</D:status></D:propstat>"
+				+ "</D:response>"
+				+ FOOTER);
+
+		assertEquals(1, entries.size());
+		assertEquals(5, entries.get(0).contentLength);
+		assertFalse(entries.get(0).collection);
+		assertNull(entries.get(0).etag);
+	}
+
+	@Test
+	public void ignoresInvalidValues() throws IOException {
+		List<Entry> entries = parse(HEADER
+				+ response("/t/site/c.txt", "<D:getcontentlength>lots</D:getcontentlength>"
+						+ "<D:getlastmodified>yesterday</D:getlastmodified>", "200 OK")
+				+ FOOTER);
+
+		assertEquals(1, entries.size());
+		assertEquals(-1, entries.get(0).contentLength);
+		assertEquals(0, entries.get(0).modified);
+	}
+
+	@Test
+	public void ignoresOtherNamespaces() throws IOException {
+		List<Entry> entries = parse("<?xml version=\"1.0\"?>\n"
+				+ "<D:multistatus xmlns:D=\"DAV:\" xmlns:X=\"urn:other\">"
+				+ "<D:response><D:href>/t/site/d.txt</D:href><D:propstat><D:prop>"
+				+ "<X:getcontentlength>99</X:getcontentlength><D:getcontentlength>7</D:getcontentlength>"
+				+ "</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>"
+				+ FOOTER);
+
+		assertEquals(1, entries.size());
+		assertEquals(7, entries.get(0).contentLength);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsMalformedXml() throws IOException {
+		parse(HEADER + "<D:response><D:href>/t/site/e.txt</D:href>");
+	}
+
+	private static String response(String href, String properties, String status) {
+		return "<D:response><D:href>" + href + "</D:href><D:propstat><D:prop>" + properties 
+				+ "</D:prop><D:status>HTTP/1.1 " + status + "</D:status></D:propstat></D:response>\n";
+	}
+
+	private static List<Entry> parse(String body) throws IOException {
+		final List<Entry> entries = new ArrayList<Entry>();
+		new PropfindParser().parse(new ByteArrayInputStream(body.getBytes("UTF-8")), new PropfindParser.Listener() {
+
+			@Override
+			public void resource(String href, boolean collection, long modified, long contentLength, String etag) {
+				entries.add(new Entry(href, collection, modified, contentLength, etag));
+			}
+		});
+		return entries;
+	}
+
+	private static class Entry {
+
+		private final String href;
+		private final boolean collection;
+		private final long modified;
+		private final long contentLength;
+		private final String etag;
+
+		Entry(String href, boolean collection, long modified, long contentLength, String etag) {
+			this.href = href;
+			this.collection = collection;
+			this.modified = modified;
+			this.contentLength = contentLength;
+			this.etag = etag;
+		}
+	}
+}
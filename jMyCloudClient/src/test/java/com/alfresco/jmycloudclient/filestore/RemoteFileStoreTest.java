@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.filestore;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.alfresco.jmycloudclient.model.Resource;
+
+/**
+ * Drives a {@link RemoteFileStore} against a {@link DavStandIn} set up as each kind
+ * of server the store has to cope with
+ */
+public class RemoteFileStoreTest {
+
+	private static final String SITE = "/t/site";
+	private static final int SIZE = 10000;
+	private static final long CHUNK = 4000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private DavStandIn server;
+	private RemoteFileStore store;
+	private byte[] data;
+
+	@Before
+	public void setUp() throws IOException {
+		server = new DavStandIn();
+		server.putFolder("/t");
+		server.putFolder(SITE);
+		store = new RemoteFileStore("http", server.getAddress(), "t", "site", "user", "secret");
+		data = new byte[SIZE];
+		new Random(1).nextBytes(data);
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	@Test
+	public void listsTreeInOneRequest() {
+		putTree();
+		SortedMap<String, Resource> tree = store.getResources("", true);
+
+		assertEquals(Arrays.asList("/a.txt", "/dir", "/dir/b.txt", "/dir/sub", "/dir/sub/c.txt"), new ArrayList<String>(tree.keySet()));
+		assertTrue(tree.get("/dir/sub").isDirectory());
+		assertEquals(3, tree.get("/dir/sub/c.txt").getSize());
+		assertEquals(Arrays.asList("PROPFIND " + SITE + " infinity"), server.getRequests());
+	}
+
+	@Test
+	public void listsTreeByLevelWhenDepthInfinityRefused() {
+		putTree();
+		server.refuseInfiniteDepth();
+		SortedMap<String, Resource> tree = store.getResources("", true);
+
+		assertEquals(Arrays.asList("/a.txt", "/dir", "/dir/b.txt", "/dir/sub", "/dir/sub/c.txt"), new ArrayList<String>(tree.keySet()));
+		assertEquals(Arrays.asList("PROPFIND " + SITE + " infinity", "PROPFIND " + SITE + " 1", 
+				"PROPFIND " + SITE + "/dir 1", "PROPFIND " + SITE + "/dir/sub 1"), server.getRequests());
+
+		// Not asked again once refused
+		server.clearRequests();
+		final List<String> visited = new ArrayList<String>();
+		assertTrue(store.visitResources("", true, new ResourceVisitor() {
+
+			@Override
+			public Result visit(Resource resource) {
+				visited.add(resource.getPath());
+				return Result.CONTINUE;
+			}
+		}));
+		assertEquals(5, visited.size());
+		for (String request : server.getRequests()) {
+			assertFalse(request, request.endsWith("infinity"));
+		}
+	}
+
+	@Test
+	public void getsRangeOfFile() throws IOException {
+		server.putFile(SITE + "/f.bin", data);
+		Resource resource = store.getResource("/f.bin");
+
+		assertArrayEquals(Arrays.copyOfRange(data, 6000, SIZE), read(store.getFile(resource, 6000)));
+		assertArrayEquals(Arrays.copyOfRange(data, 100, 300), read(store.getFile(resource, 100, 200)));
+		assertEquals("GET " + SITE + "/f.bin bytes=6000-", server.getRequests().get(1));
+	}
+
+	@Test
+	public void getsNoRangeOfChangedFile() {
+		server.putFile(SITE + "/f.bin", data);
+		Resource resource = store.getResource("/f.bin");
+		server.putFile(SITE + "/f.bin", new byte[SIZE]);
+
+		// If-Range no longer matches, the server sends the whole of the new version
+		assertNull(store.getFile(resource, 6000));
+	}
+
+	@Test
+	public void resumesDownloadFromRange() throws IOException {
+		server.putFile(SITE + "/f.bin", data);
+		Resource resource = store.getResource("/f.bin");
+		LocalFileStore local = new LocalFileStore(folder.newFolder("local").getPath());
+
+		Transfer transfer = store.getFile(resource);
+		try {
+			assertFalse(local.putFile(resource, new FailingStream(transfer.getStream(), 3000), 0));
+		} finally {
+			transfer.close();
+		}
+		long offset = local.getResumeOffset(resource);
+		assertEquals(3000, offset);
+
+		transfer = store.getFile(resource, offset);
+		try {
+			assertTrue(local.putFile(resource, transfer.getStream(), offset));
+			transfer.complete();
+		} finally {
+			transfer.close();
+		}
+		assertArrayEquals(data, Files.readAllBytes(new File(folder.getRoot(), "local/f.bin").toPath()));
+	}
+
+	@Test
+	public void uploadsInChunks() throws IOException {
+		store.enableChunkedUpload(folder.newFolder("checkpoints"), CHUNK);
+		assertTrue(upload(0));
+
+		assertArrayEquals(data, server.getFile(SITE + "/f.bin"));
+		assertFalse(server.exists(SITE + "/.f.bin.partial"));
+		assertEquals(3, countPuts("bytes "));
+	}
+
+	@Test
+	public void resumesChunkedUpload() throws IOException {
+		store.enableChunkedUpload(folder.newFolder("checkpoints"), CHUNK);
+		server.failPut(2);
+		assertFalse(upload(0));
+		assertEquals(CHUNK, store.getResumeOffset(getUploadResource()));
+
+		server.clearRequests();
+		assertTrue(upload(CHUNK));
+		assertArrayEquals(data, server.getFile(SITE + "/f.bin"));
+		assertEquals(Arrays.asList("bytes 4000-7999/10000", "bytes 8000-9999/10000"), getContentRanges());
+	}
+
+	@Test
+	public void uploadsWholeFileWhenContentRangeIgnored() throws IOException {
+		store.enableChunkedUpload(folder.newFolder("checkpoints"), CHUNK);
+		server.setRangePuts(DavStandIn.RangePuts.IGNORE);
+		assertTrue(upload(0));
+		assertArrayEquals(data, server.getFile(SITE + "/f.bin"));
+		assertFalse(server.exists(SITE + "/.f.bin.partial"));
+
+		// Chunks stay off for the next upload
+		server.clearRequests();
+		assertTrue(upload(0));
+		assertEquals(0, countPuts("bytes "));
+	}
+
+	@Test
+	public void uploadsWholeFileWhenContentRangeRefused() throws IOException {
+		store.enableChunkedUpload(folder.newFolder("checkpoints"), CHUNK);
+		server.setRangePuts(DavStandIn.RangePuts.REFUSE);
+		assertTrue(upload(0));
+		assertArrayEquals(data, server.getFile(SITE + "/f.bin"));
+		assertEquals(1, countPuts("bytes "));
+		assertEquals(2, countPuts(""));
+	}
+
+	@Test
+	public void sendsCredentialsWithoutChallengeOnPooledConnection() throws IOException {
+		server.requireCredentials("user", "secret");
+		server.putFile(SITE + "/f.bin", data);
+
+		Resource resource = store.getResource("/f.bin");
+		assertNotNull(resource);
+		assertArrayEquals(data, read(store.getFile(resource)));
+		assertEquals(1, store.getResources("", false).size());
+		assertTrue(upload(0));
+
+		assertEquals(0, server.getChallenges());
+		assertEquals(1, server.getConnections());
+	}
+
+	private void putTree() {
+		server.putFile(SITE + "/a.txt", new byte[1]);
+		server.putFolder(SITE + "/dir");
+		server.putFile(SITE + "/dir/b.txt", new byte[2]);
+		server.putFolder(SITE + "/dir/sub");
+		server.putFile(SITE + "/dir/sub/c.txt", new byte[3]);
+	}
+
+	private Resource getUploadResource() {
+		return new Resource("f.bin", "/f.bin", 1000000, false, SIZE);
+	}
+
+	private boolean upload(long offset) throws IOException {
+		File file = new File(folder.getRoot(), "upload.bin");
+		Files.write(file.toPath(), data);
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			stream.getChannel().position(offset);
+			return store.putFile(getUploadResource(), stream, offset);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private int countPuts(String contentRange) {
+		int count = 0;
+		for (String request : server.getRequests()) {
+			if (request.startsWith("PUT ") && request.contains(" " + contentRange)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private List<String> getContentRanges() {
+		List<String> ranges = new ArrayList<String>();
+		for (String request : server.getRequests()) {
+			int range = request.indexOf(" bytes ");
+			if (request.startsWith("PUT ") && range > 0) {
+				ranges.add(request.substring(range + 1));
+			}
+		}
+		return ranges;
+	}
+
+	private static byte[] read(Transfer transfer) throws IOException {
+		assertNotNull(transfer);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = transfer.getStream().read(buffer)) >= 0) {
+				bytes.write(buffer, 0, count);
+			}
+			transfer.complete();
+			return bytes.toByteArray();
+		} finally {
+			transfer.close();
+		}
+	}
+
+	/**
+	 * Passes on the first bytes of a stream then fails, as a dropped connection
+	 */
+	private static class FailingStream extends FilterInputStream {
+
+		private int remaining;
+
+		FailingStream(InputStream stream, int failAt) {
+			super(stream);
+			this.remaining = failAt;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) < 0) ? -1 : (one[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				throw new IOException("Connection reset");
+			}
+			int count = super.read(buffer, offset, Math.min(length, remaining));
+			if (count > 0) {
+				remaining -= count;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalChangeWatcherTest {
+
+	private static final long DEBOUNCE = 300;
+	private static final long MAX_DELAY = 1500;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+	private LocalChangeWatcher watcher;
+	private final BlockingQueue<Map<String, Boolean>> batches = new LinkedBlockingQueue<Map<String, Boolean>>();
+
+	@Before
+	public void setUp() throws IOException {
+		root = folder.newFolder("sync");
+		File rules = folder.newFile("exceptions");
+		Files.write(rules.toPath(), "^.*\\.tmp$,IGNORE\n".getBytes("UTF-8"));
+		watcher = new LocalChangeWatcher(root.getPath(), new IgnoreRules(rules), new LocalChangeWatcher.Listener() {
+
+			@Override
+			public void foldersChanged(Map<String, Boolean> folders, long lastEvent) {
+				batches.add(folders);
+			}
+		}, DEBOUNCE, MAX_DELAY);
+		assertTrue(watcher.start());
+	}
+
+	@After
+	public void tearDown() {
+		watcher.stop();
+	}
+
+	@Test
+	public void handsOverBatchOnceQuiet() throws Exception {
+		new File(root, "dir").mkdir();
+		Thread.sleep(DEBOUNCE * 3);
+		batches.clear();
+
+		write("dir/a.txt");
+		write("dir/b.txt");
+		Map<String, Boolean> batch = batches.poll(MAX_DELAY * 3, TimeUnit.MILLISECONDS);
+		assertNotNull(batch);
+		assertEquals(Boolean.FALSE, batch.get("/dir"));
+		assertEquals(1, batch.size());
+	}
+
+	@Test
+	public void handsOverBatchOfTreeThatIsNeverQuiet() throws Exception {
+		long start = System.currentTimeMillis();
+		Map<String, Boolean> batch = null;
+		for (int i = 0; batch == null && System.currentTimeMillis() - start < MAX_DELAY * 4; i++) {
+			write("f" + i + ".txt");
+			batch = batches.poll(DEBOUNCE / 3, TimeUnit.MILLISECONDS);
+		}
+		assertNotNull(batch);
+		assertTrue(System.currentTimeMillis() - start < MAX_DELAY + DEBOUNCE * 3);
+	}
+
+	@Test
+	public void ignoredChangesDontHoldBatchBack() throws Exception {
+		write("a.txt");
+		long start = System.currentTimeMillis();
+		Map<String, Boolean> batch = null;
+		for (int i = 0; batch == null && System.currentTimeMillis() - start < MAX_DELAY * 4; i++) {
+			write("f" + i + ".tmp");
+			batch = batches.poll(DEBOUNCE / 3, TimeUnit.MILLISECONDS);
+		}
+		assertNotNull(batch);
+		assertTrue(System.currentTimeMillis() - start < MAX_DELAY);
+
+		// Nor start one
+		assertNull(batches.poll(DEBOUNCE * 3, TimeUnit.MILLISECONDS));
+	}
+
+	private void write(String path) throws IOException {
+		Files.write(new File(root, path).toPath(), new byte[] {1});
+	}
+}
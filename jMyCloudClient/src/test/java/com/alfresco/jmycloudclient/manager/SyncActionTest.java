@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.manager;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.alfresco.jmycloudclient.model.Resource;
+import com.alfresco.jmycloudclient.model.SyncState;
+
+public class SyncActionTest {
+
+	private static final String PATH = "/docs/report.doc";
+
+	@Test
+	public void copiesToTheMissingSide() {
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(local(10, 1000000), null, null));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(null, remote(10, 1000000, "e"), null));
+	}
+
+	@Test
+	public void adoptsUnrecordedPairOnlyWithMatchingTimes() {
+		assertEquals(SyncAction.ADOPT, SyncAction.decide(local(10, 1000000), remote(10, 1000000, "e"), null));
+		assertEquals(SyncAction.ADOPT, SyncAction.decide(local(10, 1000000), remote(10, 1000000 + SyncAction.MODIFIED_TOLERANCE, "e"), null));
+	}
+
+	@Test
+	public void keepsNewestOfUnrecordedPairWithDifferentTimes() {
+		// Same size is no evidence the contents match
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(local(10, 9000000), remote(10, 1000000, "e"), null));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(10, 1000000), remote(10, 9000000, "e"), null));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(10, 1000000), remote(20, 1000000 + SyncAction.MODIFIED_TOLERANCE + 1, "e"), null));
+	}
+
+	@Test
+	public void leavesUnrecordedPairWithSameTimeAndDifferentSize() {
+		assertEquals(SyncAction.NONE, SyncAction.decide(local(10, 1000000), remote(20, 1000000, "e"), null));
+	}
+
+	@Test
+	public void copiesOnlyTheSideThatChanged() {
+		SyncState state = new SyncState(PATH, 10, 1000000, "k", 10, 2000000, "e1");
+		assertEquals(SyncAction.NONE, SyncAction.decide(local(10, 1000000), remote(10, 2000000, "e1"), state));
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(local(11, 1000000), remote(10, 2000000, "e1"), state));
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(local(10, 1500000), remote(10, 2000000, "e1"), state));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(10, 1000000), remote(10, 2000000, "e2"), state));
+	}
+
+	@Test
+	public void clockDifferenceBetweenStoresIsNotAChange() {
+		// Remote clock an hour ahead, neither side changed since they were recorded
+		SyncState state = new SyncState(PATH, 10, 1000000, null, 10, 1000000 + 3600000, null);
+		assertEquals(SyncAction.NONE, SyncAction.decide(local(10, 1000000), remote(10, 1000000 + 3600000, null), state));
+	}
+
+	@Test
+	public void replacedLocalFileIsAChange() {
+		SyncState state = new SyncState(PATH, 10, 1000000, "k1", 10, 2000000, "e1");
+		Resource replaced = new Resource("report.doc", PATH, 1000000, false, 10, null, "k2");
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(replaced, remote(10, 2000000, "e1"), state));
+	}
+
+	@Test
+	public void remoteSizeAndTimeUsedWithoutEtag() {
+		SyncState state = new SyncState(PATH, 10, 1000000, null, 10, 2000000, null);
+		assertEquals(SyncAction.NONE, SyncAction.decide(local(10, 1000000), remote(10, 2000000, null), state));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(10, 1000000), remote(10, 3000000, null), state));
+	}
+
+	@Test
+	public void adoptsSizeOnlyRecordWhenSizesMatch() {
+		// Uploaded before the remote side was listed, the server gave it a new time
+		SyncState state = new SyncState(PATH, 10, 1000000, null, 10, SyncState.UNKNOWN, null);
+		assertEquals(SyncAction.ADOPT, SyncAction.decide(local(10, 1000000), remote(10, 9000000, "e"), state));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(10, 1000000), remote(11, 9000000, "e"), state));
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(local(10, 1500000), remote(10, 9000000, "e"), state));
+
+		state = new SyncState(PATH, 10, SyncState.UNKNOWN, null, 10, 2000000, "e1");
+		assertEquals(SyncAction.ADOPT, SyncAction.decide(local(10, 9000000), remote(10, 2000000, "e1"), state));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(10, 9000000), remote(10, 2000000, "e2"), state));
+	}
+
+	@Test
+	public void keepsNewestWhenBothSidesChanged() {
+		SyncState state = new SyncState(PATH, 10, 1000000, null, 10, 1000000, "e1");
+		assertEquals(SyncAction.UPLOAD, SyncAction.decide(local(11, 5000000), remote(12, 4000000, "e2"), state));
+		assertEquals(SyncAction.DOWNLOAD, SyncAction.decide(local(11, 4000000), remote(12, 5000000, "e2"), state));
+		assertEquals(SyncAction.NONE, SyncAction.decide(local(11, 5000000), remote(12, 5000000, "e2"), state));
+	}
+
+	private static Resource local(long size, long modified) {
+		return new Resource("report.doc", PATH, modified, false, size, null, null);
+	}
+
+	private static Resource remote(long size, long modified, String etag) {
+		return new Resource("report.doc", PATH, modified, false, size, etag);
+	}
+}
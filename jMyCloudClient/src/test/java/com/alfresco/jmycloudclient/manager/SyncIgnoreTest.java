@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class SyncIgnoreTest {
+
+	@Test
+	public void starMatchesWithinOneName() throws IOException {
+		SyncIgnore rules = read("*.log");
+		assertEquals(Boolean.TRUE, rules.match("build.log", false));
+		assertEquals(Boolean.TRUE, rules.match("logs/old/build.log", false));
+		assertNull(rules.match("build.log.txt", false));
+		assertNull(rules.match("buildlog", false));
+	}
+
+	@Test
+	public void questionMarkMatchesOneCharacter() throws IOException {
+		SyncIgnore rules = read("file?.txt");
+		assertEquals(Boolean.TRUE, rules.match("file1.txt", false));
+		assertNull(rules.match("file10.txt", false));
+		assertNull(rules.match("file.txt", false));
+	}
+
+	@Test
+	public void bracketsMatchRangesAndNegatedRanges() throws IOException {
+		SyncIgnore rules = read("draft[0-9].doc\nv[!a-z].txt");
+		assertEquals(Boolean.TRUE, rules.match("draft3.doc", false));
+		assertNull(rules.match("drafta.doc", false));
+		assertEquals(Boolean.TRUE, rules.match("v1.txt", false));
+		assertNull(rules.match("vb.txt", false));
+	}
+
+	@Test
+	public void regexCharactersAreLiteral() throws IOException {
+		SyncIgnore rules = read("a+b (1).txt\n\\*starred");
+		assertEquals(Boolean.TRUE, rules.match("a+b (1).txt", false));
+		assertNull(rules.match("aab (1)xtxt", false));
+		assertEquals(Boolean.TRUE, rules.match("*starred", false));
+		assertNull(rules.match("unstarred", false));
+	}
+
+	@Test
+	public void slashAnchorsToTheFolder() throws IOException {
+		SyncIgnore rules = read("/top.txt\ndocs/*.tmp");
+		assertEquals(Boolean.TRUE, rules.match("top.txt", false));
+		assertNull(rules.match("sub/top.txt", false));
+		assertEquals(Boolean.TRUE, rules.match("docs/a.tmp", false));
+		assertNull(rules.match("docs/sub/a.tmp", false));
+		assertNull(rules.match("other/docs/a.tmp", false));
+	}
+
+	@Test
+	public void doubleStarMatchesAnyFolders() throws IOException {
+		SyncIgnore rules = read("**/cache\nbuild/**\na/**/z.txt");
+		assertEquals(Boolean.TRUE, rules.match("cache", true));
+		assertEquals(Boolean.TRUE, rules.match("x/y/cache", true));
+		assertEquals(Boolean.TRUE, rules.match("build/out/app.jar", false));
+		assertEquals(Boolean.TRUE, rules.match("a/z.txt", false));
+		assertEquals(Boolean.TRUE, rules.match("a/b/c/z.txt", false));
+		assertNull(rules.match("b/z.txt", false));
+	}
+
+	@Test
+	public void trailingSlashOnlyMatchesFolders() throws IOException {
+		SyncIgnore rules = read("temp/");
+		assertEquals(Boolean.TRUE, rules.match("temp", true));
+		assertEquals(Boolean.TRUE, rules.match("a/temp", true));
+		assertNull(rules.match("temp", false));
+	}
+
+	@Test
+	public void lastMatchingRuleWins() throws IOException {
+		SyncIgnore rules = read("*.pdf\n!keep.pdf");
+		assertEquals(Boolean.TRUE, rules.match("drop.pdf", false));
+		assertEquals(Boolean.FALSE, rules.match("keep.pdf", false));
+	}
+
+	@Test
+	public void skipsCommentsAndBlankLines() throws IOException {
+		SyncIgnore rules = read("# *.txt\n\n   \nnotes.md   ");
+		assertNull(rules.match("a.txt", false));
+		assertNull(rules.match("# *.txt", false));
+		assertEquals(Boolean.TRUE, rules.match("notes.md", false));
+	}
+
+	@Test
+	public void isCurrentComparesModifiedAndSize() throws IOException {
+		SyncIgnore rules = new SyncIgnore(new ByteArrayInputStream(new byte[0]), 1000, 0);
+		assertEquals(true, rules.isCurrent(1000, 0));
+		assertEquals(false, rules.isCurrent(2000, 0));
+		assertEquals(false, rules.isCurrent(1000, 5));
+	}
+
+	private static SyncIgnore read(String contents) throws IOException {
+		byte[] bytes = contents.getBytes("UTF-8");
+		return new SyncIgnore(new ByteArrayInputStream(bytes), 0, bytes.length);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012 Alfresco Software Limited.
+ * [OTHER COPYRIGHT NOTICES]
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * This file is part of an unsupported extension to Alfresco.
+ */
+
+
+package com.alfresco.jmycloudclient.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.alfresco.jmycloudclient.model.SyncState;
+
+public class SyncJournalTest {
+
+	private static final String PAIR = "/home/user/sync|https://host/t/site";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File journalFile;
+
+	@Before
+	public void setUp() throws IOException {
+		journalFile = new File(folder.getRoot(), "journal");
+	}
+
+	@Test
+	public void migratesLegacyJournal() throws IOException {
+		write("#" + PAIR,
+				"10\t1000\t10\t2000\t\"e1\"\t/a.txt",
+				"20\t3000\t20\t4000\t\t/dir/b.txt");
+		SyncJournal journal = load();
+
+		SyncState a = journal.get("/a.txt");
+		assertEquals(10, a.getLocalSize());
+		assertEquals(1000, a.getLocalModified());
+		assertNull(a.getLocalFileKey());
+		assertEquals(10, a.getRemoteSize());
+		assertEquals(2000, a.getRemoteModified());
+		assertEquals("\"e1\"", a.getRemoteEtag());
+
+		SyncState b = journal.get("/dir/b.txt");
+		assertEquals(3000, b.getLocalModified());
+		assertNull(b.getRemoteEtag());
+	}
+
+	@Test
+	public void keepsSizeOfLegacyEntriesWithUnknownSide() throws IOException {
+		write("#" + PAIR,
+				"10\t-1\t10\t2000\t\t/local-unknown.txt",
+				"10\t1000\t12\t-1\t\t/remote-unknown.txt",
+				"10\t1000\t10\t2000\t\t/known.txt");
+		SyncJournal journal = load();
+
+		SyncState local = journal.get("/local-unknown.txt");
+		assertEquals(SyncState.UNKNOWN, local.getLocalModified());
+		assertEquals(10, local.getLocalSize());
+		assertFalse(local.isComplete());
+		SyncState remote = journal.get("/remote-unknown.txt");
+		assertEquals(SyncState.UNKNOWN, remote.getRemoteModified());
+		assertEquals(12, remote.getRemoteSize());
+		assertFalse(remote.isComplete());
+		assertTrue(journal.get("/known.txt").isComplete());
+	}
+
+	@Test
+	public void rewritesLegacyJournalInCurrentFormat() throws IOException {
+		write("#" + PAIR, "10\t1000\t10\t2000\t\"e1\"\t/a.txt");
+		SyncJournal journal = load();
+		journal.save();
+
+		List<String> lines = read();
+		assertEquals("#2\t" + PAIR, lines.get(0));
+		assertEquals("10\t1000\t\t10\t2000\t\"e1\"\t/a.txt", lines.get(1));
+		assertEquals(2, lines.size());
+
+		SyncState a = load().get("/a.txt");
+		assertEquals(2000, a.getRemoteModified());
+		assertEquals("\"e1\"", a.getRemoteEtag());
+	}
+
+	@Test
+	public void roundTripsCurrentFormat() throws IOException {
+		SyncJournal journal = load();
+		journal.put(new SyncState("/tab\tname.txt", 5, 6, "(dev=1,ino=2)", 7, 8, "W/\"x\""));
+		journal.put(new SyncState("/plain.txt", 1, 2, null, 3, 4, null));
+		journal.save();
+
+		SyncJournal reloaded = load();
+		SyncState tab = reloaded.get("/tab\tname.txt");
+		assertEquals(5, tab.getLocalSize());
+		assertEquals("(dev=1,ino=2)", tab.getLocalFileKey());
+		assertEquals("W/\"x\"", tab.getRemoteEtag());
+		SyncState plain = reloaded.get("/plain.txt");
+		assertNull(plain.getLocalFileKey());
+		assertNull(plain.getRemoteEtag());
+	}
+
+	@Test
+	public void replacesExistingJournal() throws IOException {
+		SyncJournal journal = load();
+		journal.put(new SyncState("/a.txt", 1, 2, null, 3, 4, null));
+		journal.save();
+		journal.put(new SyncState("/b.txt", 5, 6, null, 7, 8, null));
+		journal.save();
+
+		assertEquals(3, read().size());
+		assertFalse(new File(journalFile.getPath() + ".tmp").exists());
+		assertEquals(8, load().get("/b.txt").getRemoteModified());
+	}
+
+	@Test
+	public void savesDuringRunOnlyWhenDue() throws IOException {
+		SyncJournal journal = load();
+		journal.beginRun();
+		journal.put(new SyncState("/a.txt", 1, 2, null, 3, 4, null));
+		journal.saveIfDue();
+		assertFalse(journalFile.exists());
+	}
+
+	@Test
+	public void ignoresJournalOfAnotherPair() throws IOException {
+		write("#2\tsomewhere else", "10\t1000\t\t10\t2000\t\t/a.txt");
+		assertNull(load().get("/a.txt"));
+
+		write("#somewhere else", "10\t1000\t10\t2000\t\t/a.txt");
+		assertNull(load().get("/a.txt"));
+	}
+
+	@Test
+	public void skipsCorruptEntries() throws IOException {
+		write("#2\t" + PAIR, "10\tnot a time\t\t10\t2000\t\t/bad.txt", "short line", "1\t2\t\t3\t4\t\t/good.txt");
+		SyncJournal journal = load();
+		assertNull(journal.get("/bad.txt"));
+		assertEquals(4, journal.get("/good.txt").getRemoteModified());
+	}
+
+	private SyncJournal load() {
+		SyncJournal journal = new SyncJournal(journalFile, PAIR);
+		journal.load();
+		return journal;
+	}
+
+	private void write(String... lines) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(journalFile), "UTF-8");
+		try {
+			for (String line : lines) {
+				writer.write(line + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private List<String> read() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		Scanner scanner = new Scanner(journalFile, "UTF-8");
+		try {
+			while (scanner.hasNextLine()) {
+				lines.add(scanner.nextLine());
+			}
+		} finally {
+			scanner.close();
+		}
+		return lines;
+	}
+}